@@ -0,0 +1,124 @@
+package org.megastage.vase.bench;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.megastage.vase.Database;
+import org.megastage.vase.DatabaseBoneCP;
+import org.megastage.vase.DatabasePreparedStatement;
+import org.megastage.vase.DatabaseStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end CRUD through each Database implementation.  By default the tables live in an embedded
+ * PostgreSQL started for the trial; set the system properties vase.bench.url, vase.bench.user and
+ * vase.bench.pass to run against another server instead.  The tables are dropped and refilled with
+ * {@link #ROWS} rows per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrudBenchmark {
+    public static final int ROWS = 1000;
+
+    @Param({"statement", "prepared", "bonecp"})
+    public String backend;
+
+    @Param({"narrow", "medium", "wide"})
+    public String width;
+
+    private EmbeddedPostgres embedded;
+    private Database db;
+    private Class<Object> clazz;
+    private List<Object> items;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        String url = System.getProperty("vase.bench.url");
+        String user = System.getProperty("vase.bench.user", "postgres");
+        String pass = System.getProperty("vase.bench.pass", "");
+        if(url == null) {
+            embedded = EmbeddedPostgres.start();
+            url = embedded.getJdbcUrl(user, "postgres");
+        }
+
+        clazz = (Class<Object>) Entities.byName(width);
+        try(Connection conn = DriverManager.getConnection(url, user, pass);
+            Statement stmt = conn.createStatement()) {
+            for(String sql: Entities.ddl(clazz)) {
+                stmt.execute(sql);
+            }
+        }
+
+        db = open(url, user, pass);
+        items = new ArrayList<>(ROWS);
+        for(int i = 0; i < ROWS; i++) {
+            items.add(Entities.sample(clazz, i));
+        }
+        db.createAll(items);
+    }
+
+    private Database open(String url, String user, String pass) throws SQLException, ClassNotFoundException {
+        switch(backend) {
+            case "statement":
+                return new DatabaseStatement(url, user, pass);
+            case "prepared":
+                return new DatabasePreparedStatement(url, user, pass);
+            case "bonecp":
+                return new DatabaseBoneCP("org.postgresql.Driver", url, user, pass);
+        }
+        throw new IllegalArgumentException("Unknown backend: " + backend);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        db.close();
+        if(embedded != null) {
+            embedded.close();
+        }
+    }
+
+    @Benchmark
+    public Object read() throws SQLException {
+        return db.read(clazz, Entities.keyOf(any()));
+    }
+
+    @Benchmark
+    public boolean update() throws SQLException {
+        return db.update(any());
+    }
+
+    @Benchmark
+    public boolean createDelete() throws SQLException {
+        Object item = db.create(Entities.sample(clazz, ThreadLocalRandom.current().nextInt(ROWS)));
+        return db.delete(clazz, Entities.keyOf(item));
+    }
+
+    private Object any() {
+        return items.get(ThreadLocalRandom.current().nextInt(ROWS));
+    }
+}
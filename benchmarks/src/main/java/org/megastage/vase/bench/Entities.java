@@ -0,0 +1,174 @@
+package org.megastage.vase.bench;
+
+import org.megastage.vase.EntityMapper;
+import org.megastage.vase.EntityMetadata;
+import org.megastage.vase.SqlKey;
+import org.megastage.vase.SqlSerial;
+import org.megastage.vase.SqlTableName;
+
+import java.lang.reflect.Field;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entities of several widths.  Column i has the type types[(i - 1) % 7] of int, long, double, boolean,
+ * String, Timestamp and an enum, so the medium and wide entities exercise every mapping path.
+ */
+public final class Entities {
+    private Entities() {
+    }
+
+    @SqlTableName("bench_enum")
+    public enum BenchEnum {
+        RED, GREEN, BLUE
+    }
+
+    /** 3 columns. */
+    @SqlTableName("bench_narrow")
+    public static class Narrow {
+        @SqlSerial @SqlKey
+        public int id;
+        public int c1;
+        public long c2;
+    }
+
+    /** 10 columns. */
+    @SqlTableName("bench_medium")
+    public static class Medium {
+        @SqlSerial @SqlKey
+        public int id;
+        public int c1;
+        public long c2;
+        public double c3;
+        public boolean c4;
+        public String c5;
+        public Timestamp c6;
+        public BenchEnum c7;
+        public int c8;
+        public long c9;
+    }
+
+    /** 30 columns. */
+    @SqlTableName("bench_wide")
+    public static class Wide {
+        @SqlSerial @SqlKey
+        public int id;
+        public int c1;
+        public long c2;
+        public double c3;
+        public boolean c4;
+        public String c5;
+        public Timestamp c6;
+        public BenchEnum c7;
+        public int c8;
+        public long c9;
+        public double c10;
+        public boolean c11;
+        public String c12;
+        public Timestamp c13;
+        public BenchEnum c14;
+        public int c15;
+        public long c16;
+        public double c17;
+        public boolean c18;
+        public String c19;
+        public Timestamp c20;
+        public BenchEnum c21;
+        public int c22;
+        public long c23;
+        public double c24;
+        public boolean c25;
+        public String c26;
+        public Timestamp c27;
+        public BenchEnum c28;
+        public int c29;
+    }
+
+    public static Class<?> byName(String width) {
+        switch(width) {
+            case "narrow": return Narrow.class;
+            case "medium": return Medium.class;
+            case "wide": return Wide.class;
+        }
+        throw new IllegalArgumentException("Unknown width: " + width);
+    }
+
+    /**
+     * Returns a new entity with every column except the key set from the seed.
+     */
+    public static <T> T sample(Class<T> clazz, int seed) {
+        EntityMapper<T> mapper = EntityMetadata.of(clazz).getMapper();
+        T item = mapper.newInstance();
+        for(EntityMapper.Property p: mapper.getProperties()) {
+            if(!p.getName().equals("id")) {
+                p.set(item, value(p.getType(), seed));
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Returns the serial key of an entity created by the database.
+     */
+    public static int keyOf(Object item) {
+        return (Integer) EntityMetadata.of(item.getClass()).getMapper().getProperty("id").get(item);
+    }
+
+    static Object value(Class<?> type, int seed) {
+        if(type == Integer.TYPE) {
+            return seed;
+        } else if(type == Long.TYPE) {
+            return seed * 1000L;
+        } else if(type == Double.TYPE) {
+            return seed / 4.0;
+        } else if(type == Boolean.TYPE) {
+            return seed % 2 == 0;
+        } else if(type == String.class) {
+            return "value " + seed;
+        } else if(type == Timestamp.class) {
+            return new Timestamp(1500000000000L + seed * 1000L);
+        } else if(type == BenchEnum.class) {
+            return BenchEnum.values()[seed % BenchEnum.values().length];
+        }
+        throw new IllegalArgumentException("Unsupported type " + type);
+    }
+
+    /**
+     * Returns the statements that create the table of the entity, and the enum type it uses.
+     */
+    public static List<String> ddl(Class<?> clazz) {
+        List<String> cols = new ArrayList<>();
+        for(Field f: EntityMetadata.of(clazz).getFields()) {
+            cols.add(f.getName() + " " + sqlType(f));
+        }
+        String table = EntityMetadata.tableNameOf(clazz);
+
+        List<String> ddl = new ArrayList<>();
+        ddl.add("DROP TABLE IF EXISTS " + table);
+        ddl.add("DO $$ BEGIN CREATE TYPE bench_enum AS ENUM ('RED', 'GREEN', 'BLUE'); "
+                + "EXCEPTION WHEN duplicate_object THEN NULL; END $$");
+        ddl.add(String.format("CREATE TABLE %s (%s)", table, String.join(", ", cols)));
+        return ddl;
+    }
+
+    private static String sqlType(Field f) {
+        Class<?> type = f.getType();
+        if(f.getAnnotation(SqlSerial.class) != null) {
+            return "SERIAL PRIMARY KEY";
+        } else if(type == Integer.TYPE) {
+            return "INTEGER";
+        } else if(type == Long.TYPE) {
+            return "BIGINT";
+        } else if(type == Double.TYPE) {
+            return "DOUBLE PRECISION";
+        } else if(type == Boolean.TYPE) {
+            return "BOOLEAN";
+        } else if(type == String.class) {
+            return "VARCHAR(255)";
+        } else if(type == Timestamp.class) {
+            return "TIMESTAMP";
+        }
+        return "bench_enum";
+    }
+}
@@ -0,0 +1,110 @@
+package org.megastage.vase.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * JDBC objects without a database, for measuring the mapping layer alone.  Statements accept and drop
+ * every parameter; their result set stays on one row whose columns hold fixed values by type.  The
+ * proxies add the same small cost to every variant, so results compare between widths and versions.
+ */
+final class JdbcStubs {
+    private JdbcStubs() {
+    }
+
+    /**
+     * Returns a connection whose statements return rows with the given columns.
+     */
+    static Connection connection(List<String> columns) {
+        ResultSet rs = resultSet(columns);
+        PreparedStatement[] holder = new PreparedStatement[1];
+        Connection conn = proxy(Connection.class, (proxy, method, args) -> {
+            if(method.getName().equals("prepareStatement")) {
+                return holder[0];
+            }
+            return defaultValue(method.getReturnType());
+        });
+        holder[0] = proxy(PreparedStatement.class, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "executeQuery":
+                case "getResultSet":
+                case "getGeneratedKeys":
+                    return rs;
+                case "getConnection":
+                    return conn;
+                case "executeUpdate":
+                    return 1;
+            }
+            return defaultValue(method.getReturnType());
+        });
+        return conn;
+    }
+
+    private static ResultSet resultSet(List<String> columns) {
+        ResultSetMetaData meta = proxy(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "getColumnCount":
+                    return columns.size();
+                case "getColumnLabel":
+                case "getColumnName":
+                    return columns.get((Integer) args[0] - 1);
+            }
+            return defaultValue(method.getReturnType());
+        });
+
+        Timestamp timestamp = new Timestamp(1500000000000L);
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch(method.getName()) {
+                case "next":
+                    return true;
+                case "getMetaData":
+                    return meta;
+                case "getInt":
+                    return 42;
+                case "getLong":
+                    return 42000L;
+                case "getDouble":
+                    return 10.5;
+                case "getBoolean":
+                    return true;
+                case "getString":
+                    return "GREEN";
+                case "getTimestamp":
+                    return timestamp;
+                case "getObject":
+                    return "GREEN";
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(JdbcStubs.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(type == Boolean.TYPE) {
+            return false;
+        } else if(type == Integer.TYPE) {
+            return 0;
+        } else if(type == Long.TYPE) {
+            return 0L;
+        } else if(type == Double.TYPE) {
+            return 0.0;
+        } else if(type == Float.TYPE) {
+            return 0.0f;
+        } else if(type == Short.TYPE) {
+            return (short) 0;
+        } else if(type == Byte.TYPE) {
+            return (byte) 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,97 @@
+package org.megastage.vase.bench;
+
+import org.megastage.vase.EntityMapper;
+import org.megastage.vase.EntityMetadata;
+import org.megastage.vase.NamedParameterStatement;
+import org.megastage.vase.PojoStatement;
+import org.megastage.vase.VaseUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the mapping layer without a database: parsing named parameters, reflecting the fields of an
+ * entity, binding an entity to a statement and reading a row into an entity.  The JDBC objects are
+ * {@link JdbcStubs}, so the numbers contain no driver or network time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+    @Param({"narrow", "medium", "wide"})
+    public String width;
+
+    private Class<Object> clazz;
+    private String sqlUpdate;
+    private EntityMapper<Object> mapper;
+    private Object item;
+    private PojoStatement update;
+    private PojoStatement read;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws SQLException {
+        clazz = (Class<Object>) Entities.byName(width);
+        EntityMetadata<Object> metadata = EntityMetadata.of(clazz);
+        sqlUpdate = metadata.getSqlUpdate();
+        mapper = metadata.getMapper();
+        item = Entities.sample(clazz, 7);
+
+        List<String> columns = new ArrayList<>();
+        for(Field f: metadata.getFields()) {
+            columns.add(f.getName());
+        }
+        update = new PojoStatement(JdbcStubs.connection(columns), sqlUpdate);
+        read = new PojoStatement(JdbcStubs.connection(columns), metadata.getSqlRead());
+        read.executeQuery();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        update.close();
+        read.close();
+    }
+
+    @Benchmark
+    public String parse() {
+        Map<String, int[]> indexMap = new HashMap<>();
+        return NamedParameterStatement.parse(sqlUpdate, indexMap);
+    }
+
+    @Benchmark
+    public Field[] getFields() {
+        return VaseUtil.getFields(clazz);
+    }
+
+    @Benchmark
+    public PojoStatement setValuesFrom() throws SQLException {
+        update.setValuesFrom(item);
+        return update;
+    }
+
+    @Benchmark
+    public Object setValuesTo() throws SQLException {
+        return read.setValuesTo(mapper.newInstance());
+    }
+}
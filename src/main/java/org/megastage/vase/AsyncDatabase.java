@@ -0,0 +1,198 @@
+package org.megastage.vase;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the CRUD operations of a {@link Database} on an executor and returns their results as
+ * {@link CompletableFuture}s.  SQL errors complete the future exceptionally with the original
+ * {@link java.sql.SQLException}.
+ *
+ * By default the executor has one thread per connection the database can use at the same time, so
+ * that queued operations wait in the executor instead of in the pool.  Its queue is bounded: when it is
+ * full, further operations fail with a {@link RejectedExecutionException} instead of piling up.  With {@link #withVirtualThreads(Database)}
+ * every operation gets its own virtual thread and the connection pool alone limits concurrency.
+ *
+ * Closing an AsyncDatabase shuts down an executor it created but leaves the database open.
+ */
+public class AsyncDatabase implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final Database db;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    /**
+     * Creates a facade with a fixed thread pool sized to {@link Database#getMaxConcurrency()} and a queue
+     * of {@link #DEFAULT_QUEUE_SIZE} operations.
+     */
+    public AsyncDatabase(Database db) {
+        this(db, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Creates a facade with a fixed thread pool sized to {@link Database#getMaxConcurrency()} and a queue
+     * of the given size.
+     */
+    public AsyncDatabase(Database db, int queueSize) {
+        this(db, newFixedExecutor(db.getMaxConcurrency(), queueSize), true);
+    }
+
+    /**
+     * Creates a facade that runs operations on the given executor.  The executor must not run more
+     * operations at a time than the database supports, see {@link Database#getMaxConcurrency()}.
+     */
+    public AsyncDatabase(Database db, Executor executor) {
+        this(db, executor, false);
+    }
+
+    private AsyncDatabase(Database db, Executor executor, boolean owned) {
+        this.db = db;
+        this.executor = executor;
+        this.ownExecutor = owned ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * Creates a facade that starts a virtual thread per operation when the JVM supports virtual threads.
+     * Only pooled databases are safe to call from unbounded threads; other databases and older JVMs get
+     * the fixed thread pool instead.
+     */
+    public static AsyncDatabase withVirtualThreads(Database db) {
+        if(db instanceof PooledDatabase) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if(executor != null) {
+                return new AsyncDatabase(db, executor, true);
+            }
+            Log.info("DB/ASYNC", "Virtual threads are not available, using a fixed thread pool");
+        }
+        return new AsyncDatabase(db);
+    }
+
+    private static ExecutorService newFixedExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "vase-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public Database getDatabase() {
+        return db;
+    }
+
+    public <T> CompletableFuture<T> create(T dao) {
+        return submit(() -> db.create(dao));
+    }
+
+    public <T> CompletableFuture<List<T>> createAll(List<T> items) {
+        return submit(() -> db.createAll(items));
+    }
+
+    public <T> CompletableFuture<T> upsert(T item) {
+        return submit(() -> db.upsert(item));
+    }
+
+    public <T> CompletableFuture<List<T>> upsertAll(Collection<T> items) {
+        return submit(() -> db.upsertAll(items));
+    }
+
+    public <T> CompletableFuture<T> read(Class<T> clazz, Object key) {
+        return submit(() -> db.read(clazz, key));
+    }
+
+    public <T> CompletableFuture<List<T>> readAll(Class<T> clazz) {
+        return submit(() -> db.readAll(clazz));
+    }
+
+    public <T> CompletableFuture<List<T>> readAll(Class<T> clazz, String... columns) {
+        return submit(() -> db.readAll(clazz, columns));
+    }
+
+    public <T> CompletableFuture<Map<Object, T>> readMany(Class<T> clazz, Collection<?> keys) {
+        return submit(() -> db.readMany(clazz, keys));
+    }
+
+    public <T> CompletableFuture<List<T>> readPage(Class<T> clazz, Object afterKey, int limit) {
+        return submit(() -> db.readPage(clazz, afterKey, limit));
+    }
+
+    public <T> CompletableFuture<Boolean> update(T item) {
+        return submit(() -> db.update(item));
+    }
+
+    public <T> CompletableFuture<boolean[]> updateAll(Collection<T> items) {
+        return submit(() -> db.updateAll(items));
+    }
+
+    public <T> CompletableFuture<Boolean> delete(Class<T> clazz, Object key) {
+        return submit(() -> db.delete(clazz, key));
+    }
+
+    public <T> CompletableFuture<boolean[]> deleteAll(Class<T> clazz, Collection<?> keys) {
+        return submit(() -> db.deleteAll(clazz, keys));
+    }
+
+    /**
+     * Runs any work against the database on the executor.
+     */
+    public <R> CompletableFuture<R> submit(DatabaseWork<R> work) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(work.execute());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        if(ownExecutor != null) {
+            ownExecutor.shutdown();
+            try {
+                if(!ownExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    Log.warn("DB/ASYNC", "Pending operations did not finish in 30 seconds");
+                    ownExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ownExecutor.shutdownNow();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface DatabaseWork<R> {
+        R execute() throws Exception;
+    }
+}
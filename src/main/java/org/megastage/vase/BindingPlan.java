@@ -0,0 +1,116 @@
+package org.megastage.vase;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds the fields of an entity class to the parameters of a statement by index.  The plan resolves
+ * every field to its parameter indexes once, so binding a row neither looks up parameter names nor
+ * boxes primitive values.  Fields without a parameter in the statement are not part of the plan.
+ */
+final class BindingPlan {
+    private final Class<?> clazz;
+    private final int[][] indexes;
+    private final EntityMapper.Property[] properties;
+    private final ParameterBinder[] binders;
+
+    private BindingPlan(Class<?> clazz, int[][] indexes, EntityMapper.Property[] properties, ParameterBinder[] binders) {
+        this.clazz = clazz;
+        this.indexes = indexes;
+        this.properties = properties;
+        this.binders = binders;
+    }
+
+    static BindingPlan build(Class<?> clazz, NamedParameterStatement stmt) {
+        List<int[]> indexes = new ArrayList<>();
+        List<EntityMapper.Property> properties = new ArrayList<>();
+        List<ParameterBinder> binders = new ArrayList<>();
+
+        for(EntityMapper.Property p: EntityMapper.of(clazz).getProperties()) {
+            int[] paramIndexes = stmt.findIndexes(p.getName());
+            if(paramIndexes.length > 0) {
+                indexes.add(paramIndexes);
+                properties.add(p);
+                binders.add(binderFor(p.getType()));
+            }
+        }
+
+        return new BindingPlan(clazz,
+                indexes.toArray(new int[0][]),
+                properties.toArray(new EntityMapper.Property[0]),
+                binders.toArray(new ParameterBinder[0]));
+    }
+
+    boolean isFor(Class<?> clazz) {
+        return this.clazz == clazz;
+    }
+
+    void bind(PreparedStatement ps, Object src) throws SQLException {
+        for(int i=0; i < binders.length; i++) {
+            binders[i].bind(ps, indexes[i], properties[i], src);
+        }
+    }
+
+    private static ParameterBinder binderFor(Class<?> type) {
+        if(type == Integer.TYPE) {
+            return (ps, indexes, p, src) -> {
+                int value = p.getInt(src);
+                for(int index: indexes) ps.setInt(index, value);
+            };
+        } else if(type == Long.TYPE) {
+            return (ps, indexes, p, src) -> {
+                long value = p.getLong(src);
+                for(int index: indexes) ps.setLong(index, value);
+            };
+        } else if(type == Double.TYPE) {
+            return (ps, indexes, p, src) -> {
+                double value = p.getDouble(src);
+                for(int index: indexes) ps.setDouble(index, value);
+            };
+        } else if(type == Boolean.TYPE) {
+            return (ps, indexes, p, src) -> {
+                boolean value = p.getBoolean(src);
+                for(int index: indexes) ps.setBoolean(index, value);
+            };
+        } else if(type == String.class) {
+            return (ps, indexes, p, src) -> {
+                String value = (String) p.get(src);
+                for(int index: indexes) ps.setString(index, value);
+            };
+        } else if(type == Timestamp.class) {
+            return (ps, indexes, p, src) -> {
+                Timestamp value = (Timestamp) p.get(src);
+                for(int index: indexes) ps.setTimestamp(index, value);
+            };
+        } else if(type.isEnum()) {
+            EnumCodec<?> codec = EnumCodec.of(type);
+            if(codec.isOrdinal()) {
+                return (ps, indexes, p, src) -> {
+                    Enum<?> value = (Enum<?>) p.get(src);
+                    for(int index: indexes) {
+                        if(value == null) ps.setNull(index, Types.SMALLINT);
+                        else ps.setShort(index, (short) value.ordinal());
+                    }
+                };
+            }
+            return (ps, indexes, p, src) -> {
+                Enum<?> value = (Enum<?>) p.get(src);
+                String name = value == null ? null : codec.nameOf(value.ordinal());
+                for(int index: indexes) ps.setString(index, name);
+            };
+        }
+        return (ps, indexes, p, src) -> {
+            Object value = p.get(src);
+            for(int index: indexes) ps.setObject(index, value);
+        };
+    }
+
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(PreparedStatement ps, int[] indexes, EntityMapper.Property p, Object src) throws SQLException;
+    }
+}
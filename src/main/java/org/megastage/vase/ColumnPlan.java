@@ -0,0 +1,111 @@
+package org.megastage.vase;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the columns of a result set to the fields of an entity class by column index.  The plan is built
+ * once from {@link ResultSetMetaData} and then reused for every row, so the driver does not have to look
+ * up column labels per field and per row.  Fields without a matching column are left untouched.
+ */
+final class ColumnPlan {
+    private final Class<?> clazz;
+    private final int[] indexes;
+    private final EntityMapper.Property[] properties;
+    private final ColumnReader[] readers;
+
+    private ColumnPlan(Class<?> clazz, int[] indexes, EntityMapper.Property[] properties, ColumnReader[] readers) {
+        this.clazz = clazz;
+        this.indexes = indexes;
+        this.properties = properties;
+        this.readers = readers;
+    }
+
+    static ColumnPlan build(Class<?> clazz, ResultSetMetaData meta) throws SQLException {
+        Map<String, Integer> columns = new HashMap<>();
+        for(int i = meta.getColumnCount(); i > 0; i--) {
+            columns.put(meta.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        List<EntityMapper.Property> properties = new ArrayList<>();
+        List<ColumnReader> readers = new ArrayList<>();
+
+        for(EntityMapper.Property p: EntityMapper.of(clazz).getProperties()) {
+            Integer index = columns.get(p.getName().toLowerCase(Locale.ROOT));
+            if(index != null) {
+                indexes.add(index);
+                properties.add(p);
+                readers.add(readerFor(p.getType()));
+            }
+        }
+
+        return new ColumnPlan(clazz,
+                indexes.stream().mapToInt(Integer::intValue).toArray(),
+                properties.toArray(new EntityMapper.Property[0]),
+                readers.toArray(new ColumnReader[0]));
+    }
+
+    boolean isFor(Class<?> clazz) {
+        return this.clazz == clazz;
+    }
+
+    void read(ResultSet rs, Object dst) throws SQLException {
+        for(int i=0; i < indexes.length; i++) {
+            readers[i].read(rs, indexes[i], properties[i], dst);
+        }
+    }
+
+    private static ColumnReader readerFor(Class<?> type) {
+        if(type == Integer.TYPE) {
+            return (rs, index, p, dst) -> {
+                int value = rs.getInt(index);
+                if(!rs.wasNull()) p.setInt(dst, value);
+            };
+        } else if(type == Long.TYPE) {
+            return (rs, index, p, dst) -> {
+                long value = rs.getLong(index);
+                if(!rs.wasNull()) p.setLong(dst, value);
+            };
+        } else if(type == Double.TYPE) {
+            return (rs, index, p, dst) -> {
+                double value = rs.getDouble(index);
+                if(!rs.wasNull()) p.setDouble(dst, value);
+            };
+        } else if(type == Boolean.TYPE) {
+            return (rs, index, p, dst) -> {
+                boolean value = rs.getBoolean(index);
+                if(!rs.wasNull()) p.setBoolean(dst, value);
+            };
+        } else if(type == String.class) {
+            return (rs, index, p, dst) -> p.set(dst, rs.getString(index));
+        } else if(type == Timestamp.class) {
+            return (rs, index, p, dst) -> p.set(dst, rs.getTimestamp(index));
+        } else if(type.isEnum()) {
+            EnumCodec<?> codec = EnumCodec.of(type);
+            if(codec.isOrdinal()) {
+                return (rs, index, p, dst) -> {
+                    int ordinal = rs.getInt(index);
+                    p.set(dst, rs.wasNull() ? null : codec.fromOrdinal(ordinal));
+                };
+            }
+            return (rs, index, p, dst) -> {
+                String name = rs.getString(index);
+                p.set(dst, name == null ? null : codec.valueOf(name));
+            };
+        }
+        return (rs, index, p, dst) -> p.set(dst, rs.getObject(index));
+    }
+
+    @FunctionalInterface
+    private interface ColumnReader {
+        void read(ResultSet rs, int index, EntityMapper.Property p, Object dst) throws SQLException;
+    }
+}
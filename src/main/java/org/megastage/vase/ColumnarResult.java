@@ -0,0 +1,311 @@
+package org.megastage.vase;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows read column by column into primitive arrays, see {@link Database#readColumns(Class, String...)}.
+ * int, long, double and boolean columns, and their wrappers, are read with the primitive getters of the
+ * result set.  Timestamps become epoch milliseconds.  Enums and strings are dictionary encoded as int codes;
+ * the code of an enum is its ordinal.  Mapping allocates nothing per row beyond what the driver returns
+ * for string and timestamp columns.
+ */
+public final class ColumnarResult {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Vector> vectors;
+    private final int size;
+
+    private ColumnarResult(Map<String, Vector> vectors, int size) {
+        this.vectors = vectors;
+        this.size = size;
+    }
+
+    static ColumnarResult read(ResultSet rs, Class<?> clazz, String... columns) throws SQLException {
+        EntityMapper<?> mapper = EntityMetadata.of(clazz).getMapper();
+        Map<String, Vector> vectors = new LinkedHashMap<>();
+        Vector[] row = new Vector[columns.length];
+        for(int i = 0; i < columns.length; i++) {
+            row[i] = vectorFor(clazz, columns[i], mapper.getProperty(columns[i]).getType());
+            vectors.put(columns[i], row[i]);
+        }
+
+        int size = 0;
+        while(rs.next()) {
+            for(int i = 0; i < row.length; i++) {
+                row[i].read(rs, i + 1, size);
+            }
+            size++;
+        }
+        for(Vector vector: row) {
+            vector.trim(size);
+        }
+        return new ColumnarResult(vectors, size);
+    }
+
+    private static Vector vectorFor(Class<?> clazz, String column, Class<?> type) {
+        if(type == Integer.TYPE || type == Integer.class) {
+            return new IntVector();
+        } else if(type == Long.TYPE || type == Long.class) {
+            return new LongVector();
+        } else if(type == Double.TYPE || type == Double.class) {
+            return new DoubleVector();
+        } else if(type == Boolean.TYPE || type == Boolean.class) {
+            return new BooleanVector();
+        } else if(type == Timestamp.class) {
+            return new TimestampVector();
+        } else if(type.isEnum()) {
+            return new EnumVector(type);
+        } else if(type == String.class) {
+            return new StringVector();
+        }
+        throw new IllegalArgumentException(String.format("Type %s of %s.%s has no columnar form",
+                type.getSimpleName(), clazz.getName(), column));
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(String column, int row) {
+        return vector(column, Vector.class).nulls.get(row);
+    }
+
+    public int[] getInts(String column) {
+        return vector(column, IntVector.class).values;
+    }
+
+    public long[] getLongs(String column) {
+        return vector(column, LongVector.class).values;
+    }
+
+    public double[] getDoubles(String column) {
+        return vector(column, DoubleVector.class).values;
+    }
+
+    public boolean[] getBooleans(String column) {
+        return vector(column, BooleanVector.class).values;
+    }
+
+    /**
+     * Returns the epoch milliseconds of a timestamp column.
+     */
+    public long[] getTimestamps(String column) {
+        return vector(column, TimestampVector.class).values;
+    }
+
+    /**
+     * Returns the dictionary codes of an enum or string column, see {@link #getDictionary(String)}.
+     */
+    public int[] getCodes(String column) {
+        return vector(column, DictionaryVector.class).codes;
+    }
+
+    /**
+     * Returns the values of an enum or string column by code: the enum constants, or the distinct strings
+     * in the order they were first read.
+     */
+    public Object[] getDictionary(String column) {
+        return vector(column, DictionaryVector.class).dictionary();
+    }
+
+    private <V extends Vector> V vector(String column, Class<V> type) {
+        Vector vector = vectors.get(column);
+        if(vector == null) {
+            throw new IllegalArgumentException("Column was not read: " + column);
+        }
+        if(!type.isInstance(vector)) {
+            throw new IllegalArgumentException(String.format("Column %s is not a %s",
+                    column, type.getSimpleName().replace("Vector", "").toLowerCase()));
+        }
+        return type.cast(vector);
+    }
+
+    private static int grow(int capacity) {
+        return Math.max(INITIAL_CAPACITY, capacity * 2);
+    }
+
+    private abstract static class Vector {
+        final BitSet nulls = new BitSet();
+
+        abstract void read(ResultSet rs, int index, int row) throws SQLException;
+
+        abstract void trim(int size);
+    }
+
+    private static class IntVector extends Vector {
+        int[] values = new int[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == values.length) values = Arrays.copyOf(values, grow(values.length));
+            values[row] = rs.getInt(index);
+            if(rs.wasNull()) nulls.set(row);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class LongVector extends Vector {
+        long[] values = new long[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == values.length) values = Arrays.copyOf(values, grow(values.length));
+            values[row] = rs.getLong(index);
+            if(rs.wasNull()) nulls.set(row);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class DoubleVector extends Vector {
+        double[] values = new double[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == values.length) values = Arrays.copyOf(values, grow(values.length));
+            values[row] = rs.getDouble(index);
+            if(rs.wasNull()) nulls.set(row);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class BooleanVector extends Vector {
+        boolean[] values = new boolean[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == values.length) values = Arrays.copyOf(values, grow(values.length));
+            values[row] = rs.getBoolean(index);
+            if(rs.wasNull()) nulls.set(row);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private static class TimestampVector extends Vector {
+        long[] values = new long[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == values.length) values = Arrays.copyOf(values, grow(values.length));
+            Timestamp ts = rs.getTimestamp(index);
+            if(ts == null) {
+                nulls.set(row);
+            } else {
+                values[row] = ts.getTime();
+            }
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    private abstract static class DictionaryVector extends Vector {
+        int[] codes = new int[0];
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(row == codes.length) codes = Arrays.copyOf(codes, grow(codes.length));
+            String value = rs.getString(index);
+            if(value == null) {
+                nulls.set(row);
+                codes[row] = -1;
+            } else {
+                codes[row] = code(value);
+            }
+        }
+
+        abstract int code(String value);
+
+        abstract Object[] dictionary();
+
+        @Override
+        void trim(int size) {
+            codes = Arrays.copyOf(codes, size);
+        }
+    }
+
+    private static class EnumVector extends DictionaryVector {
+        private final EnumCodec<?> codec;
+
+        EnumVector(Class<?> type) {
+            this.codec = EnumCodec.of(type);
+        }
+
+        @Override
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            if(!codec.isOrdinal()) {
+                super.read(rs, index, row);
+                return;
+            }
+            if(row == codes.length) codes = Arrays.copyOf(codes, grow(codes.length));
+            codes[row] = rs.getInt(index);
+            if(rs.wasNull()) {
+                nulls.set(row);
+                codes[row] = -1;
+            } else {
+                // rejects ordinals the enum does not have
+                codec.fromOrdinal(codes[row]);
+            }
+        }
+
+        @Override
+        int code(String value) {
+            return codec.valueOf(value).ordinal();
+        }
+
+        @Override
+        Object[] dictionary() {
+            return codec.getType().getEnumConstants();
+        }
+    }
+
+    private static class StringVector extends DictionaryVector {
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        @Override
+        int code(String value) {
+            Integer code = index.get(value);
+            if(code == null) {
+                code = values.size();
+                index.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        @Override
+        Object[] dictionary() {
+            return values.toArray();
+        }
+    }
+}
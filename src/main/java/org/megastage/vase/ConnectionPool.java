@@ -0,0 +1,215 @@
+package org.megastage.vase;
+
+import com.esotericsoftware.minlog.Log;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Minimal connection pool on top of a {@link DataSource}.  A fair semaphore bounds the number of
+ * borrowed connections, idle connections are reused most recently returned first, and borrowed
+ * connections are handed out as proxies whose close() returns the physical connection to the pool.
+ */
+final class ConnectionPool implements AutoCloseable {
+    private final DataSource dataSource;
+    private final PoolConfig config;
+    private final Consumer<Connection> onDiscard;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    ConnectionPool(DataSource dataSource, PoolConfig config, Consumer<Connection> onDiscard) throws SQLException {
+        this.dataSource = dataSource;
+        this.config = config;
+        this.onDiscard = onDiscard;
+        this.permits = new Semaphore(config.getMaxSize(), config.isFair());
+
+        for(int i = Math.min(config.getMinIdle(), config.getMaxSize()); i > 0; i--) {
+            idle.offerLast(open());
+        }
+    }
+
+    Connection acquire() throws SQLException {
+        if(closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if(!permits.tryAcquire(config.getAcquireTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                acquireTimeouts.increment();
+                throw new SQLTransientConnectionException(String.format(
+                        "No connection available in %d ms (active=%d, max=%d)",
+                        config.getAcquireTimeoutMillis(), active.get(), config.getMaxSize()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            Connection physical = idle.pollFirst();
+            while(physical != null && physical.isClosed()) {
+                discard(physical);
+                physical = idle.pollFirst();
+            }
+            if(physical == null) {
+                physical = open();
+            }
+            active.incrementAndGet();
+
+            long elapsed = System.nanoTime() - start;
+            acquireCount.increment();
+            acquireNanos.add(elapsed);
+            maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Borrowed(physical));
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the physical connection behind a borrowed connection.
+     */
+    static Connection physicalOf(Connection conn) {
+        return ((Borrowed) Proxy.getInvocationHandler(conn)).physical;
+    }
+
+    /**
+     * Makes a borrowed connection be discarded instead of reused when it is returned.  Used for failures
+     * on statements prepared on the physical connection, which do not pass the proxy.
+     */
+    static void markBroken(Connection conn) {
+        ((Borrowed) Proxy.getInvocationHandler(conn)).broken = true;
+    }
+
+    /**
+     * Returns true for SQLState class 08, connection exception.
+     */
+    static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    PoolMetrics getMetrics() {
+        return new PoolMetrics(active.get(), idle.size(), permits.getQueueLength(), config.getMaxSize(),
+                acquireCount.sum(), acquireTimeouts.sum(), acquireNanos.sum(), maxAcquireNanos.get());
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection physical;
+        while((physical = idle.pollFirst()) != null) {
+            discard(physical);
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection physical = dataSource.getConnection();
+        physical.setAutoCommit(config.isAutoCommit());
+        return physical;
+    }
+
+    private void release(Connection physical, boolean broken) {
+        active.decrementAndGet();
+        try {
+            if(closed || broken || physical.isClosed()) {
+                discard(physical);
+                return;
+            }
+            if(physical.getAutoCommit() != config.isAutoCommit()) {
+                if(!physical.getAutoCommit()) {
+                    physical.rollback();
+                }
+                physical.setAutoCommit(config.isAutoCommit());
+            }
+            idle.offerFirst(physical);
+        } catch (SQLException e) {
+            Log.warn("DB/POOL", "Resetting connection failed", e);
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void discard(Connection physical) {
+        try {
+            onDiscard.accept(physical);
+        } finally {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                Log.warn("DB/POOL", "Closing connection failed", e);
+            }
+        }
+    }
+
+    private class Borrowed implements InvocationHandler {
+        final Connection physical;
+        private boolean returned;
+        private volatile boolean broken;
+
+        Borrowed(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if(!returned) {
+                        returned = true;
+                        release(physical, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled(" + physical + ")";
+            }
+
+            if(returned) {
+                throw new SQLException("Connection is closed");
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof SQLException && isConnectionError((SQLException) cause)) {
+                    broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
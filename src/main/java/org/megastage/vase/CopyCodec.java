@@ -0,0 +1,439 @@
+package org.megastage.vase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes entities as rows of the PostgreSQL COPY text or binary format and decodes them back.  Columns
+ * are the mapped fields in field order and enums travel as in {@link PojoStatement}, see {@link EnumCodec}.  The binary
+ * format sends int as integer, long as bigint, double as double precision and Timestamp as timestamp
+ * without time zone, in the local time of the JVM.
+ */
+abstract class CopyCodec<T> {
+    private static final byte[] BINARY_SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+    private static final LocalDateTime PG_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    final EntityMapper<T> mapper;
+    final EntityMapper.Property[] properties;
+    final List<String> columns;
+
+    private CopyCodec(Class<T> clazz, boolean withSerial) {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        this.mapper = metadata.getMapper();
+
+        List<EntityMapper.Property> properties = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        for(EntityMapper.Property p: mapper.getProperties()) {
+            Field f = p.getField();
+            if(withSerial || f.getAnnotation(SqlSerial.class) == null) {
+                checkType(clazz, f);
+                properties.add(p);
+                columns.add(p.getName());
+            }
+        }
+        this.properties = properties.toArray(new EntityMapper.Property[0]);
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the columns of Timestamp fields.
+     */
+    List<String> getTimestampColumns() {
+        List<String> timestamps = new ArrayList<>();
+        for(EntityMapper.Property p: properties) {
+            if(p.getType() == Timestamp.class) {
+                timestamps.add(p.getName());
+            }
+        }
+        return timestamps;
+    }
+
+    static <T> CopyCodec<T> text(Class<T> clazz, boolean withSerial) {
+        return new Text<>(clazz, withSerial);
+    }
+
+    static <T> CopyCodec<T> binary(Class<T> clazz, boolean withSerial) {
+        return new Binary<>(clazz, withSerial);
+    }
+
+    /**
+     * Returns the COPY option clause of the format.
+     */
+    abstract String getOptions();
+
+    abstract void writeHeader(DataOutputStream out) throws IOException;
+
+    abstract void writeRow(DataOutputStream out, T item) throws IOException;
+
+    abstract void writeTrailer(DataOutputStream out) throws IOException;
+
+    abstract void readHeader(DataInputStream in) throws IOException;
+
+    /**
+     * Reads the next row, or returns null at the end of the data.
+     */
+    abstract T readRow(DataInputStream in) throws IOException;
+
+    private static void checkType(Class<?> clazz, Field f) {
+        Class<?> type = f.getType();
+        if(type == Integer.TYPE || type == Long.TYPE || type == Double.TYPE || type == Boolean.TYPE
+                || type == Integer.class || type == Long.class || type == Double.class || type == Boolean.class
+                || type.isEnum() || type == String.class || type == Timestamp.class) {
+            return;
+        }
+        throw new IllegalArgumentException(String.format("Type %s of %s.%s is not supported by COPY",
+                type.getSimpleName(), clazz.getName(), f.getName()));
+    }
+
+    private static Object enumValue(Class<?> type, String s) {
+        EnumCodec<?> codec = EnumCodec.of(type);
+        return codec.isOrdinal() ? codec.fromOrdinal(Integer.parseInt(s)) : codec.valueOf(s);
+    }
+
+    private static class Text<T> extends CopyCodec<T> {
+        private final StringBuilder row = new StringBuilder();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        Text(Class<T> clazz, boolean withSerial) {
+            super(clazz, withSerial);
+        }
+
+        @Override
+        String getOptions() {
+            return "";
+        }
+
+        @Override
+        void writeHeader(DataOutputStream out) {
+        }
+
+        @Override
+        void writeRow(DataOutputStream out, T item) throws IOException {
+            row.setLength(0);
+            for(int i = 0; i < properties.length; i++) {
+                if(i > 0) {
+                    row.append('\t');
+                }
+                appendValue(properties[i], item);
+            }
+            row.append('\n');
+            out.write(row.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void appendValue(EntityMapper.Property p, T item) {
+            Class<?> type = p.getType();
+            if(type == Integer.TYPE) {
+                row.append(p.getInt(item));
+            } else if(type == Long.TYPE) {
+                row.append(p.getLong(item));
+            } else if(type == Double.TYPE) {
+                row.append(p.getDouble(item));
+            } else if(type == Boolean.TYPE) {
+                row.append(p.getBoolean(item) ? 't' : 'f');
+            } else {
+                Object value = p.get(item);
+                if(value == null) {
+                    row.append("\\N");
+                } else if(value instanceof Boolean) {
+                    row.append((Boolean) value ? 't' : 'f');
+                } else if(type.isEnum()) {
+                    appendEscaped(String.valueOf(EnumCodec.of(type).encode(value)));
+                } else {
+                    appendEscaped(value.toString());
+                }
+            }
+        }
+
+        private void appendEscaped(String s) {
+            for(int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch(c) {
+                    case '\\': row.append("\\\\"); break;
+                    case '\t': row.append("\\t"); break;
+                    case '\n': row.append("\\n"); break;
+                    case '\r': row.append("\\r"); break;
+                    default: row.append(c);
+                }
+            }
+        }
+
+        @Override
+        void writeTrailer(DataOutputStream out) {
+        }
+
+        @Override
+        void readHeader(DataInputStream in) {
+        }
+
+        @Override
+        T readRow(DataInputStream in) throws IOException {
+            line.reset();
+            int b;
+            while((b = in.read()) != '\n') {
+                if(b < 0) {
+                    if(line.size() == 0) {
+                        return null;
+                    }
+                    break;
+                }
+                line.write(b);
+            }
+
+            String[] values = new String(line.toByteArray(), StandardCharsets.UTF_8).split("\t", -1);
+            if(values.length != properties.length) {
+                throw new IOException(String.format("Expected %d columns, got %d", properties.length, values.length));
+            }
+
+            T item = mapper.newInstance();
+            for(int i = 0; i < properties.length; i++) {
+                if(!values[i].equals("\\N")) {
+                    setValue(properties[i], item, unescape(values[i]));
+                }
+            }
+            return item;
+        }
+
+        private static void setValue(EntityMapper.Property p, Object dst, String s) {
+            Class<?> type = p.getType();
+            if(type == Integer.TYPE) {
+                p.setInt(dst, Integer.parseInt(s));
+            } else if(type == Long.TYPE) {
+                p.setLong(dst, Long.parseLong(s));
+            } else if(type == Double.TYPE) {
+                p.setDouble(dst, Double.parseDouble(s));
+            } else if(type == Boolean.TYPE) {
+                p.setBoolean(dst, s.equals("t"));
+            } else if(type == Integer.class) {
+                p.set(dst, Integer.valueOf(s));
+            } else if(type == Long.class) {
+                p.set(dst, Long.valueOf(s));
+            } else if(type == Double.class) {
+                p.set(dst, Double.valueOf(s));
+            } else if(type == Boolean.class) {
+                p.set(dst, s.equals("t"));
+            } else if(type == Timestamp.class) {
+                p.set(dst, parseTimestamp(s));
+            } else if(type.isEnum()) {
+                p.set(dst, enumValue(type, s));
+            } else {
+                p.set(dst, s);
+            }
+        }
+
+        /**
+         * Parses timestamp output, with the UTC offset that timestamptz columns add.
+         */
+        private static Timestamp parseTimestamp(String s) {
+            int offset = Math.max(s.lastIndexOf('+'), s.lastIndexOf('-'));
+            if(offset <= s.indexOf(' ')) {
+                return Timestamp.valueOf(s);
+            }
+            LocalDateTime local = Timestamp.valueOf(s.substring(0, offset)).toLocalDateTime();
+            return Timestamp.from(local.atOffset(ZoneOffset.of(s.substring(offset))).toInstant());
+        }
+
+        private static String unescape(String s) {
+            int slash = s.indexOf('\\');
+            if(slash < 0) {
+                return s;
+            }
+
+            StringBuilder sb = new StringBuilder(s.length());
+            sb.append(s, 0, slash);
+            for(int i = slash; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if(c != '\\' || i + 1 == s.length()) {
+                    sb.append(c);
+                    continue;
+                }
+                c = s.charAt(++i);
+                switch(c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'v': sb.append('\u000b'); break;
+                    default: sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Binary<T> extends CopyCodec<T> {
+        Binary(Class<T> clazz, boolean withSerial) {
+            super(clazz, withSerial);
+        }
+
+        @Override
+        String getOptions() {
+            return " (FORMAT binary)";
+        }
+
+        @Override
+        void writeHeader(DataOutputStream out) throws IOException {
+            out.write(BINARY_SIGNATURE);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        @Override
+        void writeRow(DataOutputStream out, T item) throws IOException {
+            out.writeShort(properties.length);
+            for(EntityMapper.Property p: properties) {
+                writeValue(out, p, item);
+            }
+        }
+
+        private static void writeValue(DataOutputStream data, EntityMapper.Property p, Object src) throws IOException {
+            Class<?> type = p.getType();
+            if(type == Integer.TYPE) {
+                data.writeInt(4);
+                data.writeInt(p.getInt(src));
+                return;
+            } else if(type == Long.TYPE) {
+                data.writeInt(8);
+                data.writeLong(p.getLong(src));
+                return;
+            } else if(type == Double.TYPE) {
+                data.writeInt(8);
+                data.writeDouble(p.getDouble(src));
+                return;
+            } else if(type == Boolean.TYPE) {
+                data.writeInt(1);
+                data.writeBoolean(p.getBoolean(src));
+                return;
+            }
+
+            Object value = p.get(src);
+            if(value == null) {
+                data.writeInt(-1);
+            } else if(value instanceof Integer) {
+                data.writeInt(4);
+                data.writeInt((Integer) value);
+            } else if(value instanceof Long) {
+                data.writeInt(8);
+                data.writeLong((Long) value);
+            } else if(value instanceof Double) {
+                data.writeInt(8);
+                data.writeDouble((Double) value);
+            } else if(value instanceof Boolean) {
+                data.writeInt(1);
+                data.writeBoolean((Boolean) value);
+            } else if(value instanceof Timestamp) {
+                data.writeInt(8);
+                data.writeLong(ChronoUnit.MICROS.between(PG_EPOCH, ((Timestamp) value).toLocalDateTime()));
+            } else if(type.isEnum() && EnumCodec.of(type).isOrdinal()) {
+                data.writeInt(2);
+                data.writeShort(((Enum<?>) value).ordinal());
+            } else {
+                String s = type.isEnum() ? ((Enum<?>) value).name() : value.toString();
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+        }
+
+        @Override
+        void writeTrailer(DataOutputStream out) throws IOException {
+            out.writeShort(-1);
+        }
+
+        @Override
+        void readHeader(DataInputStream in) throws IOException {
+            byte[] signature = new byte[BINARY_SIGNATURE.length];
+            in.readFully(signature);
+            if(!Arrays.equals(signature, BINARY_SIGNATURE)) {
+                throw new IOException("Not a binary COPY stream");
+            }
+            in.readInt();
+            int extension = in.readInt();
+            in.skipBytes(extension);
+        }
+
+        @Override
+        T readRow(DataInputStream in) throws IOException {
+            int count;
+            try {
+                count = in.readShort();
+            } catch (EOFException e) {
+                return null;
+            }
+            if(count == -1) {
+                return null;
+            }
+            if(count != properties.length) {
+                throw new IOException(String.format("Expected %d columns, got %d", properties.length, count));
+            }
+
+            T item = mapper.newInstance();
+            for(EntityMapper.Property p: properties) {
+                int length = in.readInt();
+                if(length >= 0) {
+                    readValue(in, length, p, item);
+                }
+            }
+            return item;
+        }
+
+        private static void readValue(DataInputStream data, int length, EntityMapper.Property p, Object dst) throws IOException {
+            Class<?> type = p.getType();
+            if(type == Integer.TYPE) {
+                p.setInt(dst, (int) readIntegral(data, length));
+            } else if(type == Long.TYPE) {
+                p.setLong(dst, readIntegral(data, length));
+            } else if(type == Double.TYPE) {
+                p.setDouble(dst, readFloat(data, length));
+            } else if(type == Boolean.TYPE) {
+                p.setBoolean(dst, data.readBoolean());
+            } else if(type == Integer.class) {
+                p.set(dst, (int) readIntegral(data, length));
+            } else if(type == Long.class) {
+                p.set(dst, readIntegral(data, length));
+            } else if(type == Double.class) {
+                p.set(dst, readFloat(data, length));
+            } else if(type == Boolean.class) {
+                p.set(dst, data.readBoolean());
+            } else if(type == Timestamp.class) {
+                p.set(dst, Timestamp.valueOf(PG_EPOCH.plus(data.readLong(), ChronoUnit.MICROS)));
+            } else if(type.isEnum() && EnumCodec.of(type).isOrdinal()) {
+                p.set(dst, EnumCodec.of(type).fromOrdinal((int) readIntegral(data, length)));
+            } else {
+                byte[] bytes = new byte[length];
+                data.readFully(bytes);
+                String s = new String(bytes, StandardCharsets.UTF_8);
+                p.set(dst, type.isEnum() ? EnumCodec.of(type).valueOf(s) : s);
+            }
+        }
+
+        private static long readIntegral(DataInputStream data, int length) throws IOException {
+            switch(length) {
+                case 2: return data.readShort();
+                case 4: return data.readInt();
+                case 8: return data.readLong();
+            }
+            throw new IOException("Unexpected integer length " + length);
+        }
+
+        private static double readFloat(DataInputStream data, int length) throws IOException {
+            switch(length) {
+                case 4: return data.readFloat();
+                case 8: return data.readDouble();
+            }
+            throw new IOException("Unexpected float length " + length);
+        }
+    }
+}
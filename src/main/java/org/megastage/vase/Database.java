@@ -1,28 +1,722 @@
 package org.megastage.vase;
 
 import com.esotericsoftware.minlog.Log;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
-import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Arrays;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
 public abstract class Database implements AutoCloseable {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    /** Prefix of statement names that carry their own SQL, for statements built at run time. */
+    static final String SQL_STATEMENT = "SQL:";
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /** Entity caches by class; an empty optional marks a class without cache. */
+    private final ConcurrentHashMap<Class<?>, Optional<EntityCache<?>>> caches = new ConcurrentHashMap<>();
+
+    /** Field values of the entities last read or written, by instance; null when dirty tracking is off. */
+    private volatile Cache<Object, Object[]> snapshots;
+
+    /** Receives the timing of every operation; null when nobody listens. */
+    private volatile DatabaseListener listener;
+
+    /** Connection acquire time of the operation running on the thread, collected while a listener is set. */
+    private static final ThreadLocal<long[]> acquireNanos = ThreadLocal.withInitial(() -> new long[1]);
 
     public abstract Connection getConnection() throws SQLException;
     public abstract void close();
-    public abstract <T> T create(T dao) throws SQLException;
-    public abstract <T> T read(Class<T> clazz, Object key) throws SQLException;
-    public abstract <T> List<T> readAll(Class<T> clazz) throws SQLException;
-    public abstract <T> boolean update(T item) throws SQLException;
-    public abstract <T> boolean delete(Class<T> clazz, Object key) throws SQLException;
+
+    protected abstract <T> T doCreate(T dao) throws SQLException;
+    protected abstract <T> List<T> doCreateAll(List<T> items, int batchSize) throws SQLException;
+    protected abstract <T> T doUpsert(T item) throws SQLException;
+    protected abstract <T> List<T> doUpsertAll(List<T> items, int batchSize) throws SQLException;
+    protected abstract <T> T doRead(Class<T> clazz, Object key) throws SQLException;
+    protected abstract <T> List<T> doReadAll(Class<T> clazz) throws SQLException;
+    protected abstract <T> Stream<T> doStream(Class<T> clazz, int fetchSize) throws SQLException;
+    protected abstract <T> boolean doUpdate(T item, String stmtName) throws SQLException;
+    protected abstract <T> boolean[] doUpdateAll(Collection<T> items, int batchSize) throws SQLException;
+    protected abstract <T> boolean doDelete(Class<T> clazz, Object key) throws SQLException;
+    protected abstract <T> boolean[] doDeleteAll(Class<T> clazz, Collection<?> keys) throws SQLException;
+
+    /**
+     * Runs the work with the statement of the given name, see {@link #create_STATEMENT(Connection, Class, String)}.
+     * Backends that cache statements reuse the statement across calls.
+     */
+    protected abstract <R> R doWithStatement(Class<?> clazz, String stmtName, StatementWork<R> work) throws SQLException;
+
+    public <T> T create(T dao) throws SQLException {
+        DatabaseListener listener = this.listener;
+        T item = listener == null ? doCreate(dao)
+                : measure(listener, dao.getClass(), DatabaseListener.Operation.CREATE, () -> doCreate(dao), r -> 1);
+        EntityCache<T> cache = cacheOf(dao);
+        if(cache != null) {
+            cache.put(item);
+        }
+        snapshot(item);
+        return item;
+    }
+
+    public <T> List<T> createAll(List<T> items, int batchSize) throws SQLException {
+        DatabaseListener listener = this.listener;
+        List<T> created = listener == null || items.isEmpty() ? doCreateAll(items, batchSize)
+                : measure(listener, items.get(0).getClass(), DatabaseListener.Operation.CREATE_ALL,
+                        () -> doCreateAll(items, batchSize), List::size);
+        if(!created.isEmpty()) {
+            EntityCache<T> cache = cacheOf(created.get(0));
+            if(cache != null) {
+                created.forEach(cache::put);
+            }
+            if(snapshots != null) {
+                created.forEach(this::snapshot);
+            }
+        }
+        return created;
+    }
+
+    public <T> List<T> createAll(List<T> items) throws SQLException {
+        return createAll(items, batchSize);
+    }
+
+    /**
+     * Inserts the entity or, if a row with the same key already exists, overwrites that row, in one
+     * statement.  Entities with a serial key are matched by their first {@link SqlUnique} column.
+     * @param item the entity
+     * @return the entity with the values of the inserted or updated row
+     * @throws SQLException if an error occurred
+     */
+    public <T> T upsert(T item) throws SQLException {
+        DatabaseListener listener = this.listener;
+        T upserted = listener == null ? doUpsert(item)
+                : measure(listener, item.getClass(), DatabaseListener.Operation.UPSERT, () -> doUpsert(item), r -> 1);
+        EntityCache<T> cache = cacheOf(item);
+        if(cache != null) {
+            cache.put(upserted);
+        }
+        snapshot(upserted);
+        return upserted;
+    }
+
+    /**
+     * Upserts the entities in JDBC batches of at most batchSize rows, see {@link #upsert(Object)}.
+     */
+    public <T> List<T> upsertAll(Collection<T> items, int batchSize) throws SQLException {
+        List<T> list = items instanceof List ? (List<T>) items : new ArrayList<>(items);
+        DatabaseListener listener = this.listener;
+        List<T> upserted = listener == null || list.isEmpty() ? doUpsertAll(list, batchSize)
+                : measure(listener, list.get(0).getClass(), DatabaseListener.Operation.UPSERT_ALL,
+                        () -> doUpsertAll(list, batchSize), List::size);
+        if(!upserted.isEmpty()) {
+            EntityCache<T> cache = cacheOf(upserted.get(0));
+            if(cache != null) {
+                upserted.forEach(cache::put);
+            }
+            if(snapshots != null) {
+                upserted.forEach(this::snapshot);
+            }
+        }
+        return upserted;
+    }
+
+    public <T> List<T> upsertAll(Collection<T> items) throws SQLException {
+        return upsertAll(items, batchSize);
+    }
+
+    public <T> T read(Class<T> clazz, Object key) throws SQLException {
+        EntityCache<T> cache = getCache(clazz);
+        T item = cache == null ? null : cache.get(key);
+        if(item == null) {
+            DatabaseListener listener = this.listener;
+            item = listener == null ? doRead(clazz, key)
+                    : measure(listener, clazz, DatabaseListener.Operation.READ, () -> doRead(clazz, key), r -> r == null ? 0 : 1);
+            if(item != null && cache != null) {
+                cache.put(item);
+            }
+        }
+        snapshot(item);
+        return item;
+    }
+
+    public <T> List<T> readAll(Class<T> clazz) throws SQLException {
+        DatabaseListener listener = this.listener;
+        List<T> items = listener == null ? doReadAll(clazz)
+                : measure(listener, clazz, DatabaseListener.Operation.READ_ALL, () -> doReadAll(clazz), List::size);
+        if(snapshots != null) {
+            items.forEach(this::snapshot);
+        }
+        return items;
+    }
+
+    /**
+     * Reads the entities of all keys with one query instead of one {@link #read(Class, Object)} per key.
+     * Entities found in the entity cache are not queried again.
+     * @param clazz the entity class
+     * @param keys  the keys; enum keys may be given as constants or by name
+     * @return the entities found, by the key given for them, in the order of the keys
+     * @throws SQLException if an error occurred
+     */
+    public <T> Map<Object, T> readMany(Class<T> clazz, Collection<?> keys) throws SQLException {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        metadata.getKeyField();
+
+        // keys are matched like in the entity cache, so that enum names and ordinals match constants
+        Map<String, Object> missing = new LinkedHashMap<>();
+        Map<String, T> found = new HashMap<>();
+        EntityCache<T> cache = getCache(clazz);
+        for(Object key: keys) {
+            String id = metadata.keyId(key);
+            T item = cache == null ? null : cache.get(key);
+            if(item != null) {
+                found.put(id, item);
+            } else {
+                missing.putIfAbsent(id, key);
+            }
+        }
+
+        if(!missing.isEmpty()) {
+            Collection<Object> query = missing.values();
+            DatabaseListener listener = this.listener;
+            List<T> items = listener == null
+                    ? doWithStatement(clazz, "READ_MANY", stmt -> stmt.execute_READ_MANY(clazz, query))
+                    : measure(listener, clazz, DatabaseListener.Operation.READ_MANY,
+                            () -> doWithStatement(clazz, "READ_MANY", stmt -> stmt.execute_READ_MANY(clazz, query)), List::size);
+            for(T item: items) {
+                found.put(metadata.keyId(metadata.getKeyValue(item)), item);
+                if(cache != null) {
+                    cache.put(item);
+                }
+            }
+        }
+
+        Map<Object, T> result = new LinkedHashMap<>();
+        for(Object key: keys) {
+            T item = found.get(metadata.keyId(key));
+            if(item != null && !result.containsKey(key)) {
+                result.put(key, item);
+                snapshot(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the entities referenced by {@link SqlReferences} fields of the items, one {@link #readMany(Class, Collection)}
+     * per field, instead of one read() per item and field.
+     * @param items  entities of one class
+     * @param fields names of fields annotated with {@link SqlReferences}
+     * @return the items with the referenced entities
+     * @throws SQLException if an error occurred
+     */
+    public <T> Prefetch<T> prefetch(List<T> items, String... fields) throws SQLException {
+        Prefetch<T> prefetch = new Prefetch<>(items);
+        if(items.isEmpty()) {
+            return prefetch;
+        }
+
+        EntityMapper<?> mapper = EntityMetadata.of(items.get(0).getClass()).getMapper();
+        for(String field: fields) {
+            EntityMapper.Property property = mapper.getProperty(field);
+            SqlReferences references = property.getField().getAnnotation(SqlReferences.class);
+            if(references == null) {
+                throw new IllegalArgumentException(String.format("SqlReferences is not specified in %s.%s",
+                        mapper.getMappedClass().getName(), field));
+            }
+
+            Set<Object> keys = new LinkedHashSet<>();
+            for(T item: items) {
+                Object key = property.get(item);
+                if(key != null) {
+                    keys.add(key);
+                }
+            }
+            Class<?> target = references.value();
+            prefetch(prefetch, field, property, target, keys);
+        }
+        return prefetch;
+    }
+
+    private <T, R> void prefetch(Prefetch<T> prefetch, String field, EntityMapper.Property property,
+                                 Class<R> target, Set<Object> keys) throws SQLException {
+        prefetch.add(field, property, target, readMany(target, keys));
+    }
+
+    /**
+     * Reads the next page of rows in key order.  Paging by key seeks through the key index, so every page
+     * takes the same time however deep it is, unlike OFFSET.
+     * @param clazz    the entity class
+     * @param afterKey the last key of the previous page, or null for the first page
+     * @param limit    the maximum number of rows
+     * @return the rows, fewer than limit on the last page
+     * @throws SQLException if an error occurred
+     */
+    public <T> List<T> readPage(Class<T> clazz, Object afterKey, int limit) throws SQLException {
+        if(limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String stmtName = afterKey == null ? "READ_FIRST_PAGE" : "READ_PAGE";
+        DatabaseListener listener = this.listener;
+        List<T> items = listener == null
+                ? doWithStatement(clazz, stmtName, stmt -> stmt.execute_READ_PAGE(clazz, afterKey, limit))
+                : measure(listener, clazz, DatabaseListener.Operation.READ_PAGE,
+                        () -> doWithStatement(clazz, stmtName, stmt -> stmt.execute_READ_PAGE(clazz, afterKey, limit)), List::size);
+        if(snapshots != null) {
+            items.forEach(this::snapshot);
+        }
+        return items;
+    }
+
+    /**
+     * Walks the whole table in key order, one {@link #readPage(Class, Object, int)} at a time.  A page is
+     * read when the iterator reaches it; SQL errors are thrown as RuntimeException.
+     */
+    public <T> Iterator<List<T>> readPages(Class<T> clazz, int pageSize) {
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        metadata.getKeyField();
+
+        return new Iterator<List<T>>() {
+            private List<T> page;
+            private Object afterKey;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if(page == null && !done) {
+                    try {
+                        page = readPage(clazz, afterKey, pageSize);
+                    } catch (SQLException e) {
+                        Log.error("DB", "readPages failed", e);
+                        throw new RuntimeException(e);
+                    }
+                    if(page.isEmpty()) {
+                        page = null;
+                        done = true;
+                    } else {
+                        afterKey = metadata.getKeyValue(page.get(page.size() - 1));
+                        done = page.size() < pageSize;
+                    }
+                }
+                return page != null;
+            }
+
+            @Override
+            public List<T> next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> result = page;
+                page = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Reads all rows, selecting only the given columns and the key.  The other fields of the entities keep
+     * the values set by the no-arg constructor, so update() would overwrite their columns unless dirty
+     * tracking is on.
+     * @param clazz   the entity class
+     * @param columns the columns to read, each listed once
+     * @return the partially filled entities
+     * @throws SQLException if an error occurred
+     */
+    public <T> List<T> readAll(Class<T> clazz, String... columns) throws SQLException {
+        if(columns.length == 0) {
+            return readAll(clazz);
+        }
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        String sql = String.format("SELECT %s FROM %s", metadata.selectList(columns), metadata.getTableName());
+        DatabaseListener listener = this.listener;
+        List<T> items = listener == null
+                ? doWithStatement(clazz, SQL_STATEMENT + sql, stmt -> stmt.execute_READ_ALL(clazz))
+                : measure(listener, clazz, DatabaseListener.Operation.READ_ALL,
+                        () -> doWithStatement(clazz, SQL_STATEMENT + sql, stmt -> stmt.execute_READ_ALL(clazz)), List::size);
+        if(snapshots != null) {
+            items.forEach(this::snapshot);
+        }
+        return items;
+    }
+
+    /**
+     * Reads the given columns of all rows into primitive arrays, for scans that aggregate a few columns
+     * over many rows.  Like {@link #stream(Class)}, the query runs in a transaction with the fetch size so
+     * that the rows arrive through a cursor.
+     * @param clazz   the entity class
+     * @param columns the columns to read, each listed once
+     * @return the columns
+     * @throws SQLException if an error occurred
+     */
+    public ColumnarResult readColumns(Class<?> clazz, String... columns) throws SQLException {
+        EntityMetadata<?> metadata = EntityMetadata.of(clazz);
+        if(columns.length == 0) {
+            columns = metadata.getColumns().toArray(new String[0]);
+        }
+        String sql = String.format("SELECT %s FROM %s", metadata.columnList(columns), metadata.getTableName());
+
+        String[] selected = columns;
+        Connection conn = getConnection();
+        try {
+            conn.setAutoCommit(false);
+            try (PojoStatement stmt = new PojoStatement(conn, sql)) {
+                return stmt.execute_READ_COLUMNS(clazz, fetchSize, selected);
+            } finally {
+                endStream(conn);
+            }
+        } finally {
+            releaseConnection(conn);
+        }
+    }
+
+    public <T> Stream<T> stream(Class<T> clazz, int fetchSize) throws SQLException {
+        return doStream(clazz, fetchSize);
+    }
+
+    /**
+     * Updates the row of the entity.  With dirty tracking enabled, an entity read or written through this
+     * database is compared with the values it had then: only the changed columns are sent, and nothing is
+     * sent at all when no column changed.
+     * @param item the entity
+     * @return true if the row was updated or nothing had to be updated
+     * @throws SQLException if an error occurred
+     */
+    public <T> boolean update(T item) throws SQLException {
+        String stmtName = "UPDATE";
+        Cache<Object, Object[]> snapshots = this.snapshots;
+        if(snapshots != null) {
+            Object[] snapshot = snapshots.getIfPresent(item);
+            if(snapshot != null) {
+                @SuppressWarnings("unchecked")
+                EntityMetadata<T> metadata = EntityMetadata.of((Class<T>) item.getClass());
+                List<String> changed = metadata.getChangedColumns(snapshot, item);
+                if(changed.isEmpty()) {
+                    if(Log.DEBUG) Log.debug("DB/UPDATE", "Unchanged " + item.getClass().getSimpleName() + ", skipped");
+                    return true;
+                }
+                stmtName = EntityMetadata.partialUpdateName(changed);
+            }
+        }
+
+        String name = stmtName;
+        DatabaseListener listener = this.listener;
+        boolean updated = listener == null ? doUpdate(item, name)
+                : measure(listener, item.getClass(), DatabaseListener.Operation.UPDATE, () -> doUpdate(item, name), r -> r ? 1 : 0);
+        EntityCache<T> cache = cacheOf(item);
+        if(cache != null) {
+            // after a partial update the item may lack the other columns, e.g. when read through a projection
+            if(updated && name.equals("UPDATE")) {
+                cache.put(item);
+            } else {
+                cache.invalidate(VaseUtil.getKeyValue(item));
+            }
+        }
+        if(updated) {
+            snapshot(item);
+        } else if(snapshots != null) {
+            snapshots.invalidate(item);
+        }
+        return updated;
+    }
+
+    public <T> boolean[] updateAll(Collection<T> items, int batchSize) throws SQLException {
+        EntityCache<T> cache = items.isEmpty() ? null : cacheOf(items.iterator().next());
+        if(cache != null) {
+            items.forEach(item -> cache.invalidate(VaseUtil.getKeyValue(item)));
+        }
+        boolean[] updated;
+        try {
+            DatabaseListener listener = this.listener;
+            updated = listener == null || items.isEmpty() ? doUpdateAll(items, batchSize)
+                    : measure(listener, items.iterator().next().getClass(), DatabaseListener.Operation.UPDATE_ALL,
+                            () -> doUpdateAll(items, batchSize), Database::countTrue);
+        } finally {
+            // again after the write, in case a concurrent read cached the old rows meanwhile
+            if(cache != null) {
+                items.forEach(item -> cache.invalidate(VaseUtil.getKeyValue(item)));
+            }
+        }
+        if(snapshots != null) {
+            int i = 0;
+            for(T item: items) {
+                if(updated[i++]) {
+                    snapshot(item);
+                }
+            }
+        }
+        return updated;
+    }
+
+    public <T> boolean[] updateAll(Collection<T> items) throws SQLException {
+        return updateAll(items, batchSize);
+    }
+
+    public <T> boolean delete(Class<T> clazz, Object key) throws SQLException {
+        EntityCache<T> cache = getCache(clazz);
+        if(cache != null) {
+            cache.invalidate(key);
+        }
+        try {
+            DatabaseListener listener = this.listener;
+            return listener == null ? doDelete(clazz, key)
+                    : measure(listener, clazz, DatabaseListener.Operation.DELETE, () -> doDelete(clazz, key), r -> r ? 1 : 0);
+        } finally {
+            // again after the write, in case a concurrent read cached the old row meanwhile
+            if(cache != null) {
+                cache.invalidate(key);
+            }
+        }
+    }
 
     public boolean delete(VaseUtil dao) throws SQLException {
         return delete(dao.getClass(), VaseUtil.getKeyValue(dao));
     }
 
+    public <T> boolean[] deleteAll(Class<T> clazz, Collection<?> keys) throws SQLException {
+        EntityCache<T> cache = getCache(clazz);
+        if(cache != null) {
+            keys.forEach(cache::invalidate);
+        }
+        try {
+            DatabaseListener listener = this.listener;
+            return listener == null || keys.isEmpty() ? doDeleteAll(clazz, keys)
+                    : measure(listener, clazz, DatabaseListener.Operation.DELETE_ALL,
+                            () -> doDeleteAll(clazz, keys), Database::countTrue);
+        } finally {
+            // again after the write, in case a concurrent read cached the old rows meanwhile
+            if(cache != null) {
+                keys.forEach(cache::invalidate);
+            }
+        }
+    }
+
+    /**
+     * Starts a query over the rows of the class.  Filtering, ordering, counting and existence checks run
+     * in the database.
+     */
+    public <T> Query<T> find(Class<T> clazz) {
+        return new Query<>(this, clazz);
+    }
+
+    /**
+     * Runs the work in a transaction on one pinned connection.  Writes made through the {@link UnitOfWork}
+     * are queued and flushed as JDBC batches before the commit.  If the work or the flush fails, the
+     * transaction is rolled back and the exception is rethrown.
+     * @param work the work
+     * @return the value returned by the work
+     * @throws SQLException if an error occurred
+     */
+    public <R> R inTransaction(TransactionWork<R> work) throws SQLException {
+        Connection conn = getConnection();
+        try {
+            conn.setAutoCommit(false);
+            R result;
+            try (UnitOfWork uow = new UnitOfWork(this, conn)) {
+                result = work.execute(uow);
+                uow.flush();
+                conn.commit();
+                uow.committed();
+            } catch (SQLException | RuntimeException e) {
+                // a broken connection fails here too; keep the original cause
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackFailed) {
+                    e.addSuppressed(rollbackFailed);
+                }
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException restoreFailed) {
+                    e.addSuppressed(restoreFailed);
+                }
+                throw e;
+            }
+            conn.setAutoCommit(true);
+            return result;
+        } finally {
+            releaseConnection(conn);
+        }
+    }
+
+    public <R> R safeInTransaction(TransactionWork<R> work) {
+        try { return inTransaction(work); }
+        catch(SQLException e) {
+            Log.error("DB", "safeInTransaction failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Gives back a connection obtained from {@link #getConnection()} for a transaction.  Backends with a
+     * single shared connection keep it open.
+     */
+    protected void releaseConnection(Connection conn) throws SQLException {
+    }
+
+    /**
+     * Streams all rows of the table without materializing the result.  The query runs inside a
+     * transaction with the given fetch size so that the driver reads the rows through a server side cursor.
+     * The returned stream must be closed to release the cursor and the connection.
+     */
+    public <T> Stream<T> stream(Class<T> clazz) throws SQLException {
+        return stream(clazz, fetchSize);
+    }
+
+    public <T> void forEach(Class<T> clazz, Consumer<? super T> action) throws SQLException {
+        try(Stream<T> stream = stream(clazz)) {
+            stream.forEach(action);
+        }
+    }
+
+    /**
+     * Enables a read-through cache for the class, replacing the configuration of its {@link SqlCached}
+     * annotation if any.  Entities are kept consistent by create(), update() and delete() of this database;
+     * writes made elsewhere become visible when the cached entry expires.
+     */
+    public <T> void enableCache(Class<T> clazz, long maxSize, long expireAfterMillis) {
+        caches.put(clazz, Optional.of(new EntityCache<>(clazz, maxSize, expireAfterMillis)));
+    }
+
+    public void disableCache(Class<?> clazz) {
+        caches.put(clazz, Optional.empty());
+    }
+
+    /**
+     * Returns the cache of the class, or null if the class is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> EntityCache<T> getCache(Class<T> clazz) {
+        Optional<EntityCache<?>> cache = caches.get(clazz);
+        if(cache == null) {
+            cache = Optional.ofNullable(EntityCache.fromAnnotation(clazz));
+            Optional<EntityCache<?>> previous = caches.putIfAbsent(clazz, cache);
+            if(previous != null) {
+                cache = previous;
+            }
+        }
+        return (EntityCache<T>) cache.orElse(null);
+    }
+
+    /**
+     * Turns dirty tracking on or off.  While on, the database remembers the field values of every entity
+     * returned by create(), createAll(), read() and readAll() and of every entity it updated, and update()
+     * sends only the columns changed since.  Snapshots are held weakly and are dropped with the entity.
+     */
+    public void setDirtyTracking(boolean enabled) {
+        if(enabled != isDirtyTracking()) {
+            snapshots = enabled ? CacheBuilder.newBuilder().weakKeys().<Object, Object[]>build() : null;
+        }
+    }
+
+    public boolean isDirtyTracking() {
+        return snapshots != null;
+    }
+
+    /**
+     * Sets the listener that receives the timing of create, read, update and delete operations, such as a
+     * {@link LatencyRecorder}, or removes it with null.  Without a listener no time is measured.
+     */
+    public void setListener(DatabaseListener listener) {
+        this.listener = listener;
+    }
+
+    public DatabaseListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns System.nanoTime() before a backend borrows a connection for an operation, or 0 when no
+     * listener is set.  Pass the value to {@link #connectionAcquired(long)} once the connection is borrowed.
+     */
+    protected long acquiringConnection() {
+        return listener == null ? 0L : System.nanoTime();
+    }
+
+    protected void connectionAcquired(long start) {
+        if(start != 0L) {
+            acquireNanos.get()[0] += System.nanoTime() - start;
+        }
+    }
+
+    private <R> R measure(DatabaseListener listener, Class<?> clazz, DatabaseListener.Operation operation,
+                          OperationWork<R> work, ToIntFunction<R> rows) throws SQLException {
+        long[] acquired = acquireNanos.get();
+        acquired[0] = 0L;
+        long start = System.nanoTime();
+        R result;
+        try {
+            result = work.execute();
+        } catch (SQLException | RuntimeException e) {
+            listener.operationFailed(clazz, operation, System.nanoTime() - start, e);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        listener.operationCompleted(clazz, operation, rows.applyAsInt(result), acquired[0], elapsed - acquired[0]);
+        return result;
+    }
+
+    private static int countTrue(boolean[] values) {
+        int count = 0;
+        for(boolean value: values) {
+            if(value) count++;
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> void snapshot(T item) {
+        Cache<Object, Object[]> snapshots = this.snapshots;
+        if(snapshots != null && item != null) {
+            EntityMetadata<T> metadata = EntityMetadata.of((Class<T>) item.getClass());
+            if(metadata.hasKey()) {
+                snapshots.put(item, metadata.snapshot(item));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> EntityCache<T> cacheOf(T item) {
+        return getCache((Class<T>) item.getClass());
+    }
+
+    /**
+     * Returns how many operations this database can run at the same time.  Backends with a single
+     * shared connection are not thread safe and return 1; pooled backends return their pool size.
+     */
+    public int getMaxConcurrency() {
+        return 1;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
     public <T> T safeCreate(T dao) {
         try { return create(dao); }
         catch(SQLException e) {
@@ -31,6 +725,41 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    public <T> List<T> safeCreateAll(List<T> items) {
+        try { return createAll(items); }
+        catch(SQLException e) {
+            Log.error("DB", "safeCreateAll failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> T safeUpsert(T item) {
+        try { return upsert(item); }
+        catch(SQLException e) {
+            Log.error("DB", "safeUpsert failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> List<T> safeUpsertAll(Collection<T> items) {
+        try { return upsertAll(items); }
+        catch(SQLException e) {
+            Log.error("DB", "safeUpsertAll failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if(fetchSize < 1) {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
     public <T> T safeRead(Class<T> clazz, Object key) {
         try { return read(clazz, key); }
         catch(SQLException e) {
@@ -47,6 +776,54 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    public <T> Map<Object, T> safeReadMany(Class<T> clazz, Collection<?> keys) {
+        try { return readMany(clazz, keys); }
+        catch(SQLException e) {
+            Log.error("DB", "safeReadMany failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> Prefetch<T> safePrefetch(List<T> items, String... fields) {
+        try { return prefetch(items, fields); }
+        catch(SQLException e) {
+            Log.error("DB", "safePrefetch failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public ColumnarResult safeReadColumns(Class<?> clazz, String... columns) {
+        try { return readColumns(clazz, columns); }
+        catch(SQLException e) {
+            Log.error("DB", "safeReadColumns failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> List<T> safeReadPage(Class<T> clazz, Object afterKey, int limit) {
+        try { return readPage(clazz, afterKey, limit); }
+        catch(SQLException e) {
+            Log.error("DB", "safeReadPage failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> Stream<T> safeStream(Class<T> clazz) {
+        try { return stream(clazz); }
+        catch(SQLException e) {
+            Log.error("DB", "safeStream failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> void safeForEach(Class<T> clazz, Consumer<? super T> action) {
+        try { forEach(clazz, action); }
+        catch(SQLException e) {
+            Log.error("DB", "safeForEach failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     public <T> boolean safeUpdate(T item) {
         try { return update(item); }
         catch(SQLException e) {
@@ -63,6 +840,22 @@ public abstract class Database implements AutoCloseable {
         }
     }
 
+    public <T> boolean[] safeUpdateAll(Collection<T> items) {
+        try { return updateAll(items); }
+        catch(SQLException e) {
+            Log.error("DB", "safeUpdateAll failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> boolean[] safeDeleteAll(Class<T> clazz, Collection<?> keys) {
+        try { return deleteAll(clazz, keys); }
+        catch(SQLException e) {
+            Log.error("DB", "safeDeleteAll failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
     public boolean safeDelete(VaseUtil dao) {
         try { return delete(dao); }
         catch(SQLException e) {
@@ -72,84 +865,145 @@ public abstract class Database implements AutoCloseable {
     }
 
     public static <T> String getTableName(Class<T> clazz) {
-        String tableName = clazz.getSimpleName();
+        return EntityMetadata.of(clazz).getTableName();
+    }
 
-        SqlTableName anno = clazz.getAnnotation(SqlTableName.class);
-        if(anno != null) {
-            tableName = anno.value();
+    /**
+     * Ends the transaction opened for {@link #doStream(Class, int)} and restores autocommit.
+     */
+    protected static void endStream(Connection conn) throws SQLException {
+        try {
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
         }
+    }
 
-        return tableName;
+    @FunctionalInterface
+    public interface TransactionWork<R> {
+        R execute(UnitOfWork uow) throws SQLException;
     }
 
-    <T> PojoStatement create_READ(Connection conn, Class<T> clazz) throws SQLException {
-        Field keyField = VaseUtil.getKeyField(clazz);
+    @FunctionalInterface
+    interface StatementWork<R> {
+        R execute(PojoStatement stmt) throws SQLException;
+    }
 
-        String key = keyField.getName();
-        String value = decorateColumn(keyField.getType(), key);
+    @FunctionalInterface
+    private interface OperationWork<R> {
+        R execute() throws SQLException;
+    }
 
-        String sql = String.format("SELECT * FROM %s WHERE %s=%s", getTableName(clazz), key, value);
+    <T> PojoStatement create_STATEMENT(Connection conn, Class<T> clazz, String stmtName) throws SQLException {
+        switch(stmtName) {
+            case "CREATE":
+                return create_CREATE(conn, clazz);
+            case "CREATE_ALL":
+                return create_CREATE_ALL(conn, clazz);
+            case "UPSERT":
+                return create_UPSERT(conn, clazz);
+            case "UPSERT_ALL":
+                return create_UPSERT_ALL(conn, clazz);
+            case "READ":
+                return create_READ(conn, clazz);
+            case "READ_ALL":
+                return create_READ_ALL(conn, clazz);
+            case "READ_MANY":
+                return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlReadMany());
+            case "READ_PAGE":
+                return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlReadPage());
+            case "READ_FIRST_PAGE":
+                return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlReadFirstPage());
+            case "UPDATE":
+                return create_UPDATE(conn, clazz);
+            case "DELETE":
+                return create_DELETE(conn, clazz);
+            case "DELETE_ALL":
+                return create_DELETE_ALL(conn, clazz);
+        }
+        if(stmtName.startsWith(SQL_STATEMENT)) {
+            return new PojoStatement(conn, stmtName.substring(SQL_STATEMENT.length()));
+        }
+        if(stmtName.startsWith(EntityMetadata.PARTIAL_UPDATE)) {
+            return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlUpdate(stmtName));
+        }
+        throw new IllegalArgumentException("Unknown statement: " + stmtName);
+    }
 
-        return new PojoStatement(conn, sql);
+    <T> PojoStatement create_READ(Connection conn, Class<T> clazz) throws SQLException {
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlRead());
     }
 
     <T> PojoStatement create_READ_ALL(Connection conn, Class<T> clazz) throws SQLException {
-        String sql = "SELECT * FROM " + getTableName(clazz);
-        return new PojoStatement(conn, sql);
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlReadAll());
     }
 
     <T> PojoStatement create_CREATE(Connection conn, Class<T> clazz) throws SQLException {
-        List<String> cols = Arrays.stream(VaseUtil.getFields(clazz))
-                .filter(field -> field.getAnnotation(SqlSerial.class) == null)
-                .map(Field::getName)
-                .collect(Collectors.toList());
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlCreate());
+    }
 
-        List<String> values = Arrays.stream(VaseUtil.getFields(clazz))
-                .filter(field -> field.getAnnotation(SqlSerial.class) == null)
-                .map(f -> decorateColumn(f.getType(), f.getName()))
-                .collect(Collectors.toList());
+    <T> PojoStatement create_CREATE_ALL(Connection conn, Class<T> clazz) throws SQLException {
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlCreate(), Statement.RETURN_GENERATED_KEYS);
+    }
 
-        String sql = String.format("INSERT INTO %s (%s) VALUES (%s) RETURNING *",
-                getTableName(clazz), String.join(", ", cols), String.join(", ", values));
+    <T> PojoStatement create_UPSERT(Connection conn, Class<T> clazz) throws SQLException {
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlUpsert());
+    }
 
-        return new PojoStatement(conn, sql);
+    <T> PojoStatement create_UPSERT_ALL(Connection conn, Class<T> clazz) throws SQLException {
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlUpsert(), Statement.RETURN_GENERATED_KEYS);
     }
 
     <T> PojoStatement create_UPDATE(Connection conn, Class<T> clazz) throws SQLException {
-        Field keyField = VaseUtil.getKeyField(clazz);
-
-        String key = keyField.getName();
-        String value = decorateColumn(keyField.getType(), key);
-
-        List<String> cols = Arrays.stream(VaseUtil.getFields(clazz))
-                .filter(f -> f != keyField)
-                .map(f -> String.format("%s=%s", f.getName(), decorateColumn(f.getType(), f.getName())))
-                .collect(Collectors.toList());
-
-        String sql = String.format("UPDATE %s SET %s WHERE %s=%s",
-                getTableName(clazz), String.join(", ", cols), key, value);
-
-        return new PojoStatement(conn, sql);
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlUpdate());
     }
 
     <T> PojoStatement create_DELETE(Connection conn, Class<T> clazz) throws SQLException {
-        Field keyField = VaseUtil.getKeyField(clazz);
-
-        String key = keyField.getName();
-        String value = decorateColumn(keyField.getType(), key);
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlDelete());
+    }
 
-        String sql = String.format("DELETE FROM %s WHERE %s=%s", getTableName(clazz), key, value);
+    <T> PojoStatement create_DELETE_ALL(Connection conn, Class<T> clazz) throws SQLException {
+        return new PojoStatement(conn, EntityMetadata.of(clazz).getSqlDeleteAll());
+    }
 
-        return new PojoStatement(conn, sql);
+    public static String decorateArray(Class<?> clazz, String col) {
+        return EntityMetadata.arrayPlaceholder(clazz, col);
     }
 
-    public static String decorateColumn(Class clazz, String col) {
-        if (clazz.isEnum()) {
-            SqlTableName anno = (SqlTableName) clazz.getAnnotation(SqlTableName.class);
-            String tableName = anno == null ? clazz.getSimpleName() : anno.value();
-            return ":" + col + "::" + tableName;
+    /**
+     * Returns the SQL element type used when binding values of the given java type as an array parameter.
+     * Enum values are sent as varchar and cast to the enum type in SQL, see {@link #decorateArray(Class, String)},
+     * or as smallint for enums stored as ordinals.
+     * @throws IllegalArgumentException if values of the type cannot be sent as an array
+     */
+    public static String getArrayType(Class<?> clazz) {
+        if(clazz.isEnum()) {
+            return EnumCodec.of(clazz).isOrdinal() ? "smallint" : "varchar";
+        } else if(clazz == Integer.TYPE || clazz == Integer.class) {
+            return "integer";
+        } else if(clazz == Long.TYPE || clazz == Long.class) {
+            return "bigint";
+        } else if(clazz == Short.TYPE || clazz == Short.class) {
+            return "smallint";
+        } else if(clazz == Double.TYPE || clazz == Double.class) {
+            return "float8";
+        } else if(clazz == Float.TYPE || clazz == Float.class) {
+            return "float4";
+        } else if(clazz == Boolean.TYPE || clazz == Boolean.class) {
+            return "boolean";
+        } else if(clazz == BigDecimal.class) {
+            return "numeric";
+        } else if(clazz == String.class) {
+            return "varchar";
+        } else if(clazz == Timestamp.class) {
+            return "timestamp";
+        } else if(clazz == java.sql.Date.class) {
+            return "date";
         }
+        throw new IllegalArgumentException("No SQL array type for " + clazz.getName());
+    }
 
-        return ":" + col;
+    public static String decorateColumn(Class clazz, String col) {
+        return EntityMetadata.placeholder(clazz, col);
     }
 }
@@ -2,15 +2,16 @@ package org.megastage.vase;
 
 import com.jolbox.bonecp.BoneCP;
 import com.jolbox.bonecp.BoneCPConfig;
+import com.jolbox.bonecp.ConnectionHandle;
+import com.jolbox.bonecp.hooks.AbstractConnectionHook;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.List;
 
-public class DatabaseBoneCP extends Database {
+public class DatabaseBoneCP extends PooledDatabase {
     private BoneCP connectionPool;
 
-    DatabaseBoneCP(String driver, String url, String user, String pass) throws ClassNotFoundException, SQLException {
+    public DatabaseBoneCP(String driver, String url, String user, String pass) throws ClassNotFoundException, SQLException {
         Class.forName(driver);
 
         BoneCPConfig config = new BoneCPConfig();
@@ -21,12 +22,19 @@ public class DatabaseBoneCP extends Database {
         config.setMaxConnectionsPerPartition(10);
         config.setPartitionCount(1);
         config.setDefaultAutoCommit(true);
+        config.setConnectionHook(new AbstractConnectionHook() {
+            @Override
+            public void onDestroy(ConnectionHandle connection) {
+                evictStatements(connection.getInternalConnection());
+            }
+        });
 
         connectionPool = new BoneCP(config);
     }
 
     @Override
     public void close() {
+        evictAllStatements();
         connectionPool.shutdown();
     }
 
@@ -36,47 +44,13 @@ public class DatabaseBoneCP extends Database {
     }
 
     @Override
-    public <T> T create(T dao) throws SQLException {
-        try(Connection conn = getConnection()) {
-            try (PojoStatement stmt = create_CREATE(conn, dao.getClass())) {
-                return stmt.execute_CREATE(dao);
-            }
-        }
-    }
-
-    @Override
-    public <T> T read(Class<T> clazz, Object key) throws SQLException {
-        try(Connection conn = getConnection()) {
-            try (PojoStatement stmt = create_READ(conn, clazz)) {
-                return stmt.execute_READ(clazz, key);
-            }
-        }
+    public int getMaxConcurrency() {
+        BoneCPConfig config = connectionPool.getConfig();
+        return config.getMaxConnectionsPerPartition() * config.getPartitionCount();
     }
 
     @Override
-    public <T> List<T> readAll(Class<T> clazz) throws SQLException {
-        try(Connection conn = getConnection()) {
-            try (PojoStatement stmt = create_READ_ALL(conn, clazz)) {
-                return stmt.execute_READ_ALL(clazz);
-            }
-        }
-    }
-
-    @Override
-    public <T> boolean update(T item) throws SQLException {
-        try(Connection conn = getConnection()) {
-            try (PojoStatement stmt = create_UPDATE(conn, item.getClass())) {
-                return stmt.execute_UPDATE(item);
-            }
-        }
-    }
-
-    @Override
-    public <T> boolean delete(Class<T> clazz, Object key) throws SQLException {
-        try(Connection conn = getConnection()) {
-            try (PojoStatement stmt = create_DELETE(conn, clazz)) {
-                return stmt.execute_DELETE(clazz, key);
-            }
-        }
+    protected Connection getPhysicalConnection(Connection conn) {
+        return ((ConnectionHandle) conn).getInternalConnection();
     }
 }
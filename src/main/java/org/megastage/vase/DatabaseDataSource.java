@@ -0,0 +1,54 @@
+package org.megastage.vase;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Pooled database on top of any {@link DataSource}.  The pool is sized with a {@link PoolConfig} and
+ * reports its state through {@link #getPoolMetrics()}, so the size can be tuned from measured wait times.
+ */
+public class DatabaseDataSource extends PooledDatabase {
+    private final ConnectionPool connectionPool;
+    private final int maxSize;
+
+    public DatabaseDataSource(DataSource dataSource) throws SQLException {
+        this(dataSource, new PoolConfig());
+    }
+
+    public DatabaseDataSource(DataSource dataSource, PoolConfig config) throws SQLException {
+        setStatementCacheSize(config.getStatementCacheSize());
+        maxSize = config.getMaxSize();
+        connectionPool = new ConnectionPool(dataSource, config, this::evictStatements);
+    }
+
+    @Override
+    public void close() {
+        evictAllStatements();
+        connectionPool.close();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connectionPool.acquire();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxSize;
+    }
+
+    @Override
+    protected void connectionBroken(Connection conn) {
+        ConnectionPool.markBroken(conn);
+    }
+
+    @Override
+    protected Connection getPhysicalConnection(Connection conn) {
+        return ConnectionPool.physicalOf(conn);
+    }
+
+    public PoolMetrics getPoolMetrics() {
+        return connectionPool.getMetrics();
+    }
+}
@@ -0,0 +1,30 @@
+package org.megastage.vase;
+
+/**
+ * Receives the outcome and timing of the operations of a {@link Database}, see
+ * {@link Database#setListener(DatabaseListener)}.  Only operations that reach the database are reported:
+ * reads answered by the entity cache and updates skipped by dirty tracking are not.  Listeners are called
+ * on the thread that ran the operation, so they must be thread safe and return quickly.
+ */
+public interface DatabaseListener {
+    enum Operation {
+        CREATE, CREATE_ALL, UPSERT, UPSERT_ALL, READ, READ_ALL, READ_MANY, READ_PAGE,
+        UPDATE, UPDATE_ALL, DELETE, DELETE_ALL
+    }
+
+    /**
+     * Called after an operation succeeded.
+     * @param clazz        the entity class
+     * @param operation    the operation
+     * @param rows         the rows created, read, updated or deleted
+     * @param acquireNanos time spent borrowing connections from a pool; 0 for single connection backends
+     * @param executeNanos the rest of the time of the operation
+     */
+    void operationCompleted(Class<?> clazz, Operation operation, int rows, long acquireNanos, long executeNanos);
+
+    /**
+     * Called after an operation failed, before the exception is thrown to the caller.
+     */
+    default void operationFailed(Class<?> clazz, Operation operation, long elapsedNanos, Exception e) {
+    }
+}
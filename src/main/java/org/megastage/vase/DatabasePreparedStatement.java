@@ -5,17 +5,31 @@ import com.esotericsoftware.minlog.Log;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class DatabasePreparedStatement extends Database {
     public final Connection conn;
 
-    private final HashMap<Class, HashMap<String, PojoStatement>> statements = new HashMap<>();
+    /** Prepared statements of the connection, least recently used ones closed beyond the cache size. */
+    private final StatementCache statements;
 
     public DatabasePreparedStatement(String url, String user, String pass) throws SQLException {
+        this(url, user, pass, PooledDatabase.DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Opens the connection and keeps at most statementCacheSize prepared statements on it.  Queries built
+     * at run time, partial updates and projections each take a statement per distinct SQL.
+     */
+    public DatabasePreparedStatement(String url, String user, String pass, int statementCacheSize) throws SQLException {
+        if(statementCacheSize < 1) {
+            throw new IllegalArgumentException("Statement cache size must be positive: " + statementCacheSize);
+        }
         conn = DriverManager.getConnection(url, user, pass);
         conn.setAutoCommit(true);
+        statements = new StatementCache(conn, statementCacheSize);
     }
 
     @Override
@@ -26,11 +40,7 @@ public class DatabasePreparedStatement extends Database {
     @Override
     public void close() {
         try {
-            for(HashMap<String, PojoStatement> typeStmt: statements.values()) {
-                for(PojoStatement stmt: typeStmt.values()) {
-                    stmt.close();
-                }
-            }
+            statements.clear();
             conn.close();
         } catch (SQLException e) {
             Log.error(e.getMessage());
@@ -38,62 +48,99 @@ public class DatabasePreparedStatement extends Database {
     }
 
     @Override
-    public <T> T create(T dao) throws SQLException {
+    protected <T> T doCreate(T dao) throws SQLException {
         PojoStatement stmt = getDaoStatement(dao.getClass(), "CREATE");
         return stmt.execute_CREATE(dao);
     }
 
     @Override
-    public <T> T read(Class<T> clazz, Object key) throws SQLException {
+    protected <T> List<T> doCreateAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        PojoStatement stmt = getDaoStatement(items.get(0).getClass(), "CREATE_ALL");
+        return stmt.execute_CREATE_ALL(items, batchSize);
+    }
+
+    @Override
+    protected <T> T doUpsert(T item) throws SQLException {
+        PojoStatement stmt = getDaoStatement(item.getClass(), "UPSERT");
+        return stmt.execute_CREATE(item);
+    }
+
+    @Override
+    protected <T> List<T> doUpsertAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        PojoStatement stmt = getDaoStatement(items.get(0).getClass(), "UPSERT_ALL");
+        return stmt.execute_CREATE_ALL(items, batchSize);
+    }
+
+    @Override
+    protected <T> T doRead(Class<T> clazz, Object key) throws SQLException {
         PojoStatement stmt = getDaoStatement(clazz, "READ");
         return stmt.execute_READ(clazz, key);
     }
 
     @Override
-    public <T> List<T> readAll(Class<T> clazz) throws SQLException {
+    protected <T> List<T> doReadAll(Class<T> clazz) throws SQLException {
         PojoStatement stmt = getDaoStatement(clazz, "READ_ALL");
         return stmt.execute_READ_ALL(clazz);
     }
 
+    /**
+     * Streams the table over the shared connection.  Autocommit is disabled until the stream is closed,
+     * so other operations issued on this database meanwhile join the same transaction.
+     */
+    @Override
+    protected <T> Stream<T> doStream(Class<T> clazz, int fetchSize) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            PojoStatement stmt = create_READ_ALL(conn, clazz);
+            return stmt.execute_STREAM(clazz, fetchSize, () -> endStream(conn));
+        } catch (SQLException | RuntimeException e) {
+            endStream(conn);
+            throw e;
+        }
+    }
+
     @Override
-    public <T> boolean update(T dao) throws SQLException {
-        PojoStatement stmt = getDaoStatement(dao.getClass(), "UPDATE");
+    protected <T> boolean doUpdate(T dao, String stmtName) throws SQLException {
+        PojoStatement stmt = getDaoStatement(dao.getClass(), stmtName);
         return stmt.execute_UPDATE(dao);
     }
 
     @Override
-    public <T> boolean delete(Class<T> clazz, Object key) throws SQLException {
+    protected <T> boolean[] doUpdateAll(Collection<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return new boolean[0];
+        }
+        PojoStatement stmt = getDaoStatement(items.iterator().next().getClass(), "UPDATE");
+        return stmt.execute_UPDATE_ALL(items, batchSize);
+    }
+
+    @Override
+    protected <T> boolean doDelete(Class<T> clazz, Object key) throws SQLException {
         PojoStatement stmt = getDaoStatement(clazz, "DELETE");
         return stmt.execute_DELETE(clazz, key);
     }
 
-    private <T> PojoStatement getDaoStatement(Class<T> clazz, String stmtName) throws SQLException {
-        if(!statements.containsKey(clazz)) {
-            statements.put(clazz, new HashMap<>());
-        }
-        HashMap<String, PojoStatement> typeStmt = statements.get(clazz);
-
-        if(!typeStmt.containsKey(stmtName)) {
-            PojoStatement stmt = null;
-            switch(stmtName) {
-                case "CREATE":
-                    stmt = create_CREATE(getConnection(), clazz);
-                    break;
-                case "READ":
-                    stmt = create_READ(getConnection(), clazz);
-                    break;
-                case "READ_ALL":
-                    stmt = create_READ_ALL(getConnection(), clazz);
-                    break;
-                case "UPDATE":
-                    stmt = create_UPDATE(getConnection(), clazz);
-                    break;
-                case "DELETE":
-                    stmt = create_DELETE(getConnection(), clazz);
-                    break;
-            }
-            typeStmt.put(stmtName, stmt);
+    @Override
+    protected <T> boolean[] doDeleteAll(Class<T> clazz, Collection<?> keys) throws SQLException {
+        if(keys.isEmpty()) {
+            return new boolean[0];
         }
-        return typeStmt.get(stmtName);
+        PojoStatement stmt = getDaoStatement(clazz, "DELETE_ALL");
+        return stmt.execute_DELETE_ALL(clazz, keys);
+    }
+
+    @Override
+    protected <R> R doWithStatement(Class<?> clazz, String stmtName, StatementWork<R> work) throws SQLException {
+        return work.execute(getDaoStatement(clazz, stmtName));
+    }
+
+    private <T> PojoStatement getDaoStatement(Class<T> clazz, String stmtName) throws SQLException {
+        return statements.get(this, clazz, stmtName);
     }
 }
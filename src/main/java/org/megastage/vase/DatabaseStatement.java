@@ -5,7 +5,9 @@ import com.esotericsoftware.minlog.Log;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class DatabaseStatement extends Database {
     public final Connection conn;
@@ -30,32 +32,102 @@ public class DatabaseStatement extends Database {
     }
 
     @Override
-    public <T> T create(T dao) throws SQLException {
+    protected <T> T doCreate(T dao) throws SQLException {
         PojoStatement stmt = create_CREATE(getConnection(), dao.getClass());
         return stmt.execute_CREATE(dao);
     }
 
     @Override
-    public <T> T read(Class<T> clazz, Object key) throws SQLException {
+    protected <T> List<T> doCreateAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        try (PojoStatement stmt = create_CREATE_ALL(getConnection(), items.get(0).getClass())) {
+            return stmt.execute_CREATE_ALL(items, batchSize);
+        }
+    }
+
+    @Override
+    protected <T> T doUpsert(T item) throws SQLException {
+        try (PojoStatement stmt = create_UPSERT(getConnection(), item.getClass())) {
+            return stmt.execute_CREATE(item);
+        }
+    }
+
+    @Override
+    protected <T> List<T> doUpsertAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        try (PojoStatement stmt = create_UPSERT_ALL(getConnection(), items.get(0).getClass())) {
+            return stmt.execute_CREATE_ALL(items, batchSize);
+        }
+    }
+
+    @Override
+    protected <T> T doRead(Class<T> clazz, Object key) throws SQLException {
         PojoStatement stmt = create_READ(getConnection(), clazz);
         return stmt.execute_READ(clazz, key);
     }
 
     @Override
-    public <T> List<T> readAll(Class<T> clazz) throws SQLException {
+    protected <T> List<T> doReadAll(Class<T> clazz) throws SQLException {
         PojoStatement stmt = create_READ_ALL(getConnection(), clazz);
         return stmt.execute_READ_ALL(clazz);
     }
 
+    /**
+     * Streams the table over the shared connection.  Autocommit is disabled until the stream is closed,
+     * so other operations issued on this database meanwhile join the same transaction.
+     */
     @Override
-    public <T> boolean update(T dao) throws SQLException {
-        PojoStatement stmt = create_UPDATE(getConnection(), dao.getClass());
+    protected <T> Stream<T> doStream(Class<T> clazz, int fetchSize) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            PojoStatement stmt = create_READ_ALL(conn, clazz);
+            return stmt.execute_STREAM(clazz, fetchSize, () -> endStream(conn));
+        } catch (SQLException | RuntimeException e) {
+            endStream(conn);
+            throw e;
+        }
+    }
+
+    @Override
+    protected <T> boolean doUpdate(T dao, String stmtName) throws SQLException {
+        PojoStatement stmt = create_STATEMENT(getConnection(), dao.getClass(), stmtName);
         return stmt.execute_UPDATE(dao);
     }
 
     @Override
-    public <T> boolean delete(Class<T> clazz, Object key) throws SQLException {
+    protected <T> boolean[] doUpdateAll(Collection<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return new boolean[0];
+        }
+        try (PojoStatement stmt = create_UPDATE(getConnection(), items.iterator().next().getClass())) {
+            return stmt.execute_UPDATE_ALL(items, batchSize);
+        }
+    }
+
+    @Override
+    protected <T> boolean doDelete(Class<T> clazz, Object key) throws SQLException {
         PojoStatement stmt = create_DELETE(getConnection(), clazz);
         return stmt.execute_DELETE(clazz, key);
     }
+
+    @Override
+    protected <T> boolean[] doDeleteAll(Class<T> clazz, Collection<?> keys) throws SQLException {
+        if(keys.isEmpty()) {
+            return new boolean[0];
+        }
+        try (PojoStatement stmt = create_DELETE_ALL(getConnection(), clazz)) {
+            return stmt.execute_DELETE_ALL(clazz, keys);
+        }
+    }
+
+    @Override
+    protected <R> R doWithStatement(Class<?> clazz, String stmtName, StatementWork<R> work) throws SQLException {
+        try (PojoStatement stmt = create_STATEMENT(getConnection(), clazz, stmtName)) {
+            return work.execute(stmt);
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package org.megastage.vase;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and time bounded cache of entities by key, kept by a {@link Database} in front of read().
+ * The cache stores private copies: callers never share an instance with the cache or with each other.
+ * Keys are compared by their string form, so an int key and an enum key given by name or ordinal both hit.
+ */
+public final class EntityCache<T> {
+    private final EntityMetadata<T> metadata;
+    private final Cache<String, T> cache;
+
+    EntityCache(Class<T> clazz, long maxSize, long expireAfterMillis) {
+        this.metadata = EntityMetadata.of(clazz);
+        metadata.getKeyField();
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    static <T> EntityCache<T> fromAnnotation(Class<T> clazz) {
+        SqlCached anno = clazz.getAnnotation(SqlCached.class);
+        if(anno == null) {
+            return null;
+        }
+        return new EntityCache<>(clazz, anno.maxSize(), TimeUnit.SECONDS.toMillis(anno.expireAfterSeconds()));
+    }
+
+    T get(Object key) {
+        T item = cache.getIfPresent(metadata.keyId(key));
+        return item == null ? null : metadata.getMapper().copy(item);
+    }
+
+    void put(T item) {
+        cache.put(metadata.keyId(metadata.getKeyValue(item)), metadata.getMapper().copy(item));
+    }
+
+    void invalidate(Object key) {
+        cache.invalidate(metadata.keyId(key));
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counters.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
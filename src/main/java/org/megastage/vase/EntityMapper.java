@@ -0,0 +1,253 @@
+package org.megastage.vase;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+/**
+ * Reads and writes the mapped fields of an entity class through method handles.  The handles are
+ * looked up once per class by {@link EntityMetadata} and then reused for every row, which avoids the access checks and argument
+ * boxing of {@link Field#get(Object)}, {@link Field#set(Object, Object)} and {@link Class#newInstance()}.
+ */
+public final class EntityMapper<T> {
+    private final Class<T> clazz;
+    private final MethodHandle constructor;
+    private final Property[] properties;
+
+    public static <T> EntityMapper<T> of(Class<T> clazz) {
+        return EntityMetadata.of(clazz).getMapper();
+    }
+
+    EntityMapper(Class<T> clazz, Field[] fields) {
+        this.clazz = clazz;
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.constructor = findConstructor(lookup, clazz);
+
+        this.properties = new Property[fields.length];
+        for(int i=0; i < fields.length; i++) {
+            properties[i] = new Property(lookup, fields[i]);
+        }
+    }
+
+    private static MethodHandle findConstructor(MethodHandles.Lookup lookup, Class<?> clazz) {
+        try {
+            Constructor<?> c = clazz.getDeclaredConstructor();
+            c.setAccessible(true);
+            return lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // classes without a no-arg constructor can still be bound as statement parameters
+            return null;
+        }
+    }
+
+    public Class<T> getMappedClass() {
+        return clazz;
+    }
+
+    public Property[] getProperties() {
+        return properties;
+    }
+
+    public Property getProperty(String name) {
+        for(Property p: properties) {
+            if(p.getName().equals(name)) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Field not found: %s.%s", clazz.getName(), name));
+    }
+
+    /**
+     * Creates a new instance with the no-arg constructor.
+     * @return the new instance
+     * @throws RuntimeException if the class has no accessible no-arg constructor or the constructor failed
+     */
+    public T newInstance() {
+        if(constructor == null) {
+            throw new RuntimeException("No-arg constructor is not available in " + clazz.getName());
+        }
+        try {
+            return clazz.cast(constructor.invokeExact());
+        } catch (Throwable t) {
+            throw new RuntimeException("Cannot instantiate " + clazz.getName(), t);
+        }
+    }
+
+    /**
+     * Creates a shallow copy of an instance through the mapped fields.
+     * @param src instance to copy
+     * @return the copy
+     */
+    public T copy(T src) {
+        T dst = newInstance();
+        for(Property p: properties) {
+            p.set(dst, p.get(src));
+        }
+        return dst;
+    }
+
+    /**
+     * Accessor pair for one mapped field.
+     */
+    public static final class Property {
+        private final Field field;
+        private final MethodHandle getter;
+        private final MethodHandle exactGetter;
+        private final MethodHandle setter;
+        private final MethodHandle exactSetter;
+
+        private Property(MethodHandles.Lookup lookup, Field field) {
+            this.field = field;
+            try {
+                MethodHandle unreflectedGetter = lookup.unreflectGetter(field);
+                this.getter = unreflectedGetter
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                this.exactGetter = unreflectedGetter
+                        .asType(MethodType.methodType(field.getType(), Object.class));
+                MethodHandle unreflected = lookup.unreflectSetter(field);
+                this.setter = unreflected
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                this.exactSetter = unreflected
+                        .asType(MethodType.methodType(void.class, Object.class, field.getType()));
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(String.format("Illegal access: %s.%s",
+                        field.getDeclaringClass().getName(), field.getName()), e);
+            }
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public String getName() {
+            return field.getName();
+        }
+
+        public Class<?> getType() {
+            return field.getType();
+        }
+
+        public Object get(Object obj) {
+            try {
+                return getter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw readFailed(t);
+            }
+        }
+
+        /**
+         * Reads an int field without boxing.  Only valid when the field type is int.
+         */
+        public int getInt(Object obj) {
+            try {
+                return (int) exactGetter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw readFailed(t);
+            }
+        }
+
+        /**
+         * Reads a long field without boxing.  Only valid when the field type is long.
+         */
+        public long getLong(Object obj) {
+            try {
+                return (long) exactGetter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw readFailed(t);
+            }
+        }
+
+        /**
+         * Reads a double field without boxing.  Only valid when the field type is double.
+         */
+        public double getDouble(Object obj) {
+            try {
+                return (double) exactGetter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw readFailed(t);
+            }
+        }
+
+        /**
+         * Reads a boolean field without boxing.  Only valid when the field type is boolean.
+         */
+        public boolean getBoolean(Object obj) {
+            try {
+                return (boolean) exactGetter.invokeExact(obj);
+            } catch (Throwable t) {
+                throw readFailed(t);
+            }
+        }
+
+        /**
+         * Sets the field value.  A null value leaves a primitive field untouched.
+         */
+        public void set(Object obj, Object value) {
+            if(value == null && field.getType().isPrimitive()) {
+                return;
+            }
+            try {
+                setter.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw writeFailed(t);
+            }
+        }
+
+        /**
+         * Sets an int field without boxing.  Only valid when the field type is int.
+         */
+        public void setInt(Object obj, int value) {
+            try {
+                exactSetter.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw writeFailed(t);
+            }
+        }
+
+        /**
+         * Sets a long field without boxing.  Only valid when the field type is long.
+         */
+        public void setLong(Object obj, long value) {
+            try {
+                exactSetter.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw writeFailed(t);
+            }
+        }
+
+        /**
+         * Sets a double field without boxing.  Only valid when the field type is double.
+         */
+        public void setDouble(Object obj, double value) {
+            try {
+                exactSetter.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw writeFailed(t);
+            }
+        }
+
+        /**
+         * Sets a boolean field without boxing.  Only valid when the field type is boolean.
+         */
+        public void setBoolean(Object obj, boolean value) {
+            try {
+                exactSetter.invokeExact(obj, value);
+            } catch (Throwable t) {
+                throw writeFailed(t);
+            }
+        }
+
+        private RuntimeException readFailed(Throwable t) {
+            return new RuntimeException(String.format("Cannot read %s.%s",
+                    field.getDeclaringClass().getName(), field.getName()), t);
+        }
+
+        private RuntimeException writeFailed(Throwable t) {
+            return new RuntimeException(String.format("Cannot write %s.%s",
+                    field.getDeclaringClass().getName(), field.getName()), t);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package org.megastage.vase;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything Vase derives from the annotations of an entity class: table name, mapped fields, key field,
+ * parameter placeholders with enum casts and the generated CRUD statements.  Metadata is computed once
+ * per class and shared by all threads through a concurrent registry.
+ */
+public final class EntityMetadata<T> {
+    private static final ConcurrentHashMap<Class<?>, EntityMetadata<?>> registry = new ConcurrentHashMap<>();
+
+    /** Prefix of the statement names of partial updates, see {@link #partialUpdateName(List)}. */
+    static final String PARTIAL_UPDATE = "UPDATE(";
+
+    /** Partial UPDATE statements kept per class; each set of changed columns has its own. */
+    public static final int PARTIAL_UPDATE_CACHE_SIZE = 256;
+
+    private final Class<T> clazz;
+    private final String tableName;
+    private final Field[] fields;
+    private final Field keyField;
+    /** Whether changes of each field can be detected by comparing with a snapshot, in field order. */
+    private final boolean[] tracked;
+    private final List<String> columns;
+    private final Map<String, String> placeholders;
+    private final EntityMapper<T> mapper;
+    private final EntityMapper.Property keyProperty;
+
+    private final String sqlCreate;
+    private final String sqlUpsert;
+    private final String sqlRead;
+    private final String sqlReadAll;
+    private final String sqlReadMany;
+    private final String sqlReadPage;
+    private final String sqlReadFirstPage;
+    private final String sqlUpdate;
+    private final String sqlDelete;
+    private final String sqlDeleteAll;
+
+    /** Partial UPDATE statements by statement name, generated on first use; the most used ones are kept. */
+    private final Cache<String, String> sqlPartialUpdates = CacheBuilder.newBuilder()
+            .maximumSize(PARTIAL_UPDATE_CACHE_SIZE)
+            .build();
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> of(Class<T> clazz) {
+        EntityMetadata<?> metadata = registry.get(clazz);
+        if(metadata == null) {
+            // built outside of the map so that building may look up other classes
+            EntityMetadata<?> built = new EntityMetadata<>(clazz);
+            metadata = registry.putIfAbsent(clazz, built);
+            if(metadata == null) {
+                metadata = built;
+            }
+        }
+        return (EntityMetadata<T>) metadata;
+    }
+
+    private EntityMetadata(Class<T> clazz) {
+        this.clazz = clazz;
+        this.tableName = tableNameOf(clazz);
+        this.fields = clazz.isEnum() ? new Field[0] : VaseUtil.getFields(clazz);
+
+        Field key = null;
+        List<String> columns = new ArrayList<>(fields.length);
+        Map<String, String> placeholders = new LinkedHashMap<>();
+        for(Field f: fields) {
+            if(key == null && f.getAnnotation(SqlKey.class) != null) {
+                key = f;
+            }
+            columns.add(f.getName());
+            placeholders.put(f.getName(), placeholder(f.getType(), f.getName()));
+        }
+        this.keyField = key;
+        this.tracked = new boolean[fields.length];
+        for(int i = 0; i < fields.length; i++) {
+            tracked[i] = isTracked(fields[i].getType());
+        }
+        this.columns = Collections.unmodifiableList(columns);
+        this.placeholders = Collections.unmodifiableMap(placeholders);
+        this.mapper = new EntityMapper<>(clazz, fields);
+        this.keyProperty = key == null ? null : mapper.getProperty(key.getName());
+
+        List<String> insertCols = new ArrayList<>();
+        List<String> insertValues = new ArrayList<>();
+        for(Field f: fields) {
+            if(f.getAnnotation(SqlSerial.class) == null) {
+                insertCols.add(f.getName());
+                insertValues.add(placeholders.get(f.getName()));
+            }
+        }
+        this.sqlCreate = String.format("INSERT INTO %s (%s) VALUES (%s) RETURNING *",
+                tableName, String.join(", ", insertCols), String.join(", ", insertValues));
+
+        String conflict = conflictColumn(keyField, fields);
+        if(conflict == null) {
+            this.sqlUpsert = null;
+        } else {
+            List<String> updates = new ArrayList<>();
+            for(String col: insertCols) {
+                if(!col.equals(conflict)) {
+                    updates.add(String.format("%s=EXCLUDED.%s", col, col));
+                }
+            }
+            if(updates.isEmpty()) {
+                // DO NOTHING would return no row for an existing entity
+                updates.add(String.format("%s=EXCLUDED.%s", conflict, conflict));
+            }
+            this.sqlUpsert = String.format("INSERT INTO %s (%s) VALUES (%s) ON CONFLICT (%s) DO UPDATE SET %s RETURNING *",
+                    tableName, String.join(", ", insertCols), String.join(", ", insertValues),
+                    conflict, String.join(", ", updates));
+        }
+        this.sqlReadAll = "SELECT * FROM " + tableName;
+
+        if(keyField == null) {
+            this.sqlRead = null;
+            this.sqlReadMany = null;
+            this.sqlReadPage = null;
+            this.sqlReadFirstPage = null;
+            this.sqlUpdate = null;
+            this.sqlDelete = null;
+            this.sqlDeleteAll = null;
+        } else {
+            String keyName = keyField.getName();
+            String keyValue = placeholders.get(keyName);
+
+            List<String> assignments = new ArrayList<>();
+            for(Field f: fields) {
+                if(f != keyField) {
+                    assignments.add(f.getName());
+                }
+            }
+
+            this.sqlRead = String.format("SELECT * FROM %s WHERE %s=%s", tableName, keyName, keyValue);
+            this.sqlReadMany = String.format("SELECT * FROM %s WHERE %s = ANY(%s)",
+                    tableName, keyName, arrayPlaceholder(keyField.getType(), "keys"));
+            this.sqlReadPage = String.format("SELECT * FROM %s WHERE %s > %s ORDER BY %s LIMIT :limit",
+                    tableName, keyName, placeholder(keyField.getType(), "after"), keyName);
+            this.sqlReadFirstPage = String.format("SELECT * FROM %s ORDER BY %s LIMIT :limit", tableName, keyName);
+            this.sqlUpdate = buildSqlUpdate(assignments);
+            this.sqlDelete = String.format("DELETE FROM %s WHERE %s=%s", tableName, keyName, keyValue);
+            this.sqlDeleteAll = String.format("DELETE FROM %s WHERE %s = ANY(%s) RETURNING %s",
+                    tableName, keyName, arrayPlaceholder(keyField.getType(), "keys"), keyName);
+        }
+    }
+
+    /**
+     * Returns the column that identifies an existing row for an upsert: the key unless it is serial, since
+     * inserts never send a serial key, and otherwise the first {@link SqlUnique} column.
+     */
+    private static String conflictColumn(Field keyField, Field[] fields) {
+        if(keyField != null && keyField.getAnnotation(SqlSerial.class) == null) {
+            return keyField.getName();
+        }
+        for(Field f: fields) {
+            if(f.getAnnotation(SqlUnique.class) != null && f.getAnnotation(SqlSerial.class) == null) {
+                return f.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of {@link SqlTableName} or the simple class name when the annotation is missing.
+     */
+    public static String tableNameOf(Class<?> clazz) {
+        SqlTableName anno = clazz.getAnnotation(SqlTableName.class);
+        return anno == null ? clazz.getSimpleName() : anno.value();
+    }
+
+    /**
+     * Returns the named parameter for a column, with a cast to the enum type for enum columns not stored
+     * as ordinals.
+     */
+    public static String placeholder(Class<?> type, String col) {
+        if (type.isEnum() && !EnumCodec.of(type).isOrdinal()) {
+            return ":" + col + "::" + tableNameOf(type);
+        }
+
+        return ":" + col;
+    }
+
+    /**
+     * Returns the named array parameter for values of the given type, with a cast to the enum array type
+     * for enum values.
+     */
+    public static String arrayPlaceholder(Class<?> type, String col) {
+        if (type.isEnum() && !EnumCodec.of(type).isOrdinal()) {
+            return ":" + col + "::" + tableNameOf(type) + "[]";
+        }
+
+        return ":" + col;
+    }
+
+    public Class<T> getEntityClass() {
+        return clazz;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public Field[] getFields() {
+        return fields;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public String getPlaceholder(String column) {
+        return placeholders.get(column);
+    }
+
+    public EntityMapper<T> getMapper() {
+        return mapper;
+    }
+
+    public boolean hasKey() {
+        return keyField != null;
+    }
+
+    public Field getKeyField() {
+        if(keyField == null) {
+            throw new RuntimeException("SqlKey is not specified in " + clazz.getName());
+        }
+        return keyField;
+    }
+
+    public Object getKeyValue(Object dao) {
+        getKeyField();
+        return keyProperty.get(dao);
+    }
+
+    /**
+     * Returns the form by which entity caches and identity maps match a key: its string form, after
+     * enum keys given as names or ordinals are turned into the constant.
+     */
+    String keyId(Object key) {
+        if(key != null && keyField != null && keyField.getType().isEnum()) {
+            return EnumCodec.of(keyField.getType()).toConstant(key).name();
+        }
+        return String.valueOf(key);
+    }
+
+    public String getSqlCreate() {
+        return sqlCreate;
+    }
+
+    /**
+     * Returns the INSERT ... ON CONFLICT DO UPDATE statement of the entity.
+     */
+    public String getSqlUpsert() {
+        if(sqlUpsert == null) {
+            throw new RuntimeException("Neither a non-serial SqlKey nor SqlUnique is specified in " + clazz.getName());
+        }
+        return sqlUpsert;
+    }
+
+    public String getSqlRead() {
+        getKeyField();
+        return sqlRead;
+    }
+
+    public String getSqlReadAll() {
+        return sqlReadAll;
+    }
+
+    public String getSqlReadMany() {
+        getKeyField();
+        return sqlReadMany;
+    }
+
+    public String getSqlReadPage() {
+        getKeyField();
+        return sqlReadPage;
+    }
+
+    public String getSqlReadFirstPage() {
+        getKeyField();
+        return sqlReadFirstPage;
+    }
+
+    public String getSqlUpdate() {
+        getKeyField();
+        return sqlUpdate;
+    }
+
+    /**
+     * Returns the SELECT list of the given columns for reading entities, checking that they are mapped.
+     * The key column is added if missing, so that the entities can still be updated and deleted.
+     */
+    public String selectList(String... columns) {
+        String list = columnList(columns);
+        if(columns.length == 0 || keyField == null || Arrays.asList(columns).contains(keyField.getName())) {
+            return list;
+        }
+        return list + ", " + keyField.getName();
+    }
+
+    /**
+     * Returns the given columns as a SELECT list, checking that they are mapped and listed once.
+     */
+    String columnList(String... columns) {
+        if(columns.length == 0) {
+            return "*";
+        }
+        Set<String> seen = new HashSet<>();
+        for(String col: columns) {
+            if(!placeholders.containsKey(col)) {
+                throw new IllegalArgumentException("Unknown column " + col + " in " + clazz.getName());
+            }
+            if(!seen.add(col)) {
+                throw new IllegalArgumentException("Duplicate column " + col + " in " + clazz.getName());
+            }
+        }
+        return String.join(", ", columns);
+    }
+
+    /**
+     * Returns the UPDATE statement that sets only the columns listed in a name from
+     * {@link #partialUpdateName(List)}.
+     */
+    public String getSqlUpdate(String stmtName) {
+        getKeyField();
+        String sql = sqlPartialUpdates.getIfPresent(stmtName);
+        if(sql == null) {
+            String list = stmtName.substring(PARTIAL_UPDATE.length(), stmtName.length() - 1);
+            List<String> columns = new ArrayList<>();
+            for(String col: list.split(",")) {
+                if(!placeholders.containsKey(col)) {
+                    throw new IllegalArgumentException("Unknown column " + col + " in " + clazz.getName());
+                }
+                columns.add(col);
+            }
+            sql = buildSqlUpdate(columns);
+            sqlPartialUpdates.put(stmtName, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Returns the statement name of an UPDATE that sets only the given columns.
+     */
+    static String partialUpdateName(List<String> columns) {
+        return PARTIAL_UPDATE + String.join(",", columns) + ")";
+    }
+
+    /**
+     * Returns the current values of the mapped fields of the entity, in field order.  Timestamps and
+     * arrays are copied, so that changing them in place shows up in {@link #getChangedColumns(Object[], Object)}.
+     */
+    public Object[] snapshot(T item) {
+        EntityMapper.Property[] properties = mapper.getProperties();
+        Object[] values = new Object[properties.length];
+        for(int i = 0; i < properties.length; i++) {
+            values[i] = tracked[i] ? copyOf(properties[i].get(item)) : null;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the non-key columns whose values differ from a {@link #snapshot(Object)} of the entity.
+     * Fields of types that may change in place without being copyable, such as arbitrary objects, are
+     * always reported as changed.
+     */
+    public List<String> getChangedColumns(Object[] snapshot, T item) {
+        EntityMapper.Property[] properties = mapper.getProperties();
+        List<String> changed = new ArrayList<>();
+        for(int i = 0; i < properties.length; i++) {
+            if(fields[i] != keyField && (!tracked[i] || !Objects.deepEquals(snapshot[i], properties[i].get(item)))) {
+                changed.add(columns.get(i));
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isTracked(Class<?> type) {
+        if(type.isArray()) {
+            return isTracked(type.getComponentType());
+        }
+        return type.isPrimitive() || type.isEnum() || type == String.class || type == Timestamp.class
+                || type == Integer.class || type == Long.class || type == Double.class || type == Float.class
+                || type == Short.class || type == Byte.class || type == Boolean.class || type == Character.class
+                || type == BigDecimal.class || type == BigInteger.class;
+    }
+
+    private static Object copyOf(Object value) {
+        if(value instanceof Timestamp) {
+            Timestamp ts = (Timestamp) value;
+            Timestamp copy = new Timestamp(ts.getTime());
+            copy.setNanos(ts.getNanos());
+            return copy;
+        } else if(value instanceof Object[]) {
+            Object[] copy = ((Object[]) value).clone();
+            for(int i = 0; i < copy.length; i++) {
+                copy[i] = copyOf(copy[i]);
+            }
+            return copy;
+        } else if(value != null && value.getClass().isArray()) {
+            int length = java.lang.reflect.Array.getLength(value);
+            Object copy = java.lang.reflect.Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        }
+        return value;
+    }
+
+    private String buildSqlUpdate(List<String> columns) {
+        String keyName = keyField.getName();
+        List<String> assignments = new ArrayList<>(columns.size());
+        for(String col: columns) {
+            assignments.add(String.format("%s=%s", col, placeholders.get(col)));
+        }
+        return String.format("UPDATE %s SET %s WHERE %s=%s",
+                tableName, String.join(", ", assignments), keyName, placeholders.get(keyName));
+    }
+
+    public String getSqlDelete() {
+        getKeyField();
+        return sqlDelete;
+    }
+
+    public String getSqlDeleteAll() {
+        getKeyField();
+        return sqlDeleteAll;
+    }
+}
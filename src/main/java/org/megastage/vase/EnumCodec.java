@@ -0,0 +1,110 @@
+package org.megastage.vase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts the constants of an enum to and from their database form: the name, cast to the PostgreSQL
+ * enum type, or the ordinal for enums annotated with {@link SqlOrdinal}.  Constants and names are
+ * computed once per enum and shared by all threads, so decoding a value is a single map lookup.
+ */
+public final class EnumCodec<E extends Enum<E>> {
+    private static final ConcurrentHashMap<Class<?>, EnumCodec<?>> registry = new ConcurrentHashMap<>();
+
+    private final Class<E> type;
+    private final E[] constants;
+    private final String[] names;
+    private final Map<String, E> byName;
+    private final boolean ordinal;
+
+    /**
+     * Returns the codec of an enum class.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static EnumCodec<?> of(Class<?> type) {
+        EnumCodec<?> codec = registry.get(type);
+        if(codec == null) {
+            if(!type.isEnum()) {
+                throw new IllegalArgumentException("Not an enum: " + type.getName());
+            }
+            codec = registry.computeIfAbsent(type, t -> new EnumCodec(t));
+        }
+        return codec;
+    }
+
+    private EnumCodec(Class<E> type) {
+        this.type = type;
+        this.constants = type.getEnumConstants();
+        this.names = new String[constants.length];
+        Map<String, E> byName = new HashMap<>();
+        for(E e: constants) {
+            names[e.ordinal()] = e.name();
+            byName.put(e.name(), e);
+        }
+        this.byName = Collections.unmodifiableMap(byName);
+        this.ordinal = type.getAnnotation(SqlOrdinal.class) != null;
+    }
+
+    public Class<E> getType() {
+        return type;
+    }
+
+    /**
+     * Returns true if the enum is stored as SMALLINT ordinals.
+     */
+    public boolean isOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Returns the SQL type of columns of the enum.
+     */
+    public String getSqlType() {
+        return ordinal ? "smallint" : EntityMetadata.tableNameOf(type);
+    }
+
+    public E valueOf(String name) {
+        E e = byName.get(name);
+        if(e == null) {
+            throw new IllegalArgumentException("No enum constant " + type.getName() + "." + name);
+        }
+        return e;
+    }
+
+    public E fromOrdinal(int ordinal) {
+        if(ordinal < 0 || ordinal >= constants.length) {
+            throw new IllegalArgumentException("No enum constant " + type.getName() + " with ordinal " + ordinal);
+        }
+        return constants[ordinal];
+    }
+
+    public String nameOf(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * Returns the constant given as a constant, a name or an ordinal.
+     */
+    public E toConstant(Object value) {
+        if(type.isInstance(value)) {
+            return type.cast(value);
+        } else if(value instanceof Number) {
+            return fromOrdinal(((Number) value).intValue());
+        }
+        return valueOf(String.valueOf(value));
+    }
+
+    /**
+     * Returns the value bound for a constant given as a constant, a name or an ordinal: a Short ordinal
+     * or the name.
+     */
+    public Object encode(Object value) {
+        if(value == null) {
+            return null;
+        }
+        E e = toConstant(value);
+        return ordinal ? (Object) (short) e.ordinal() : names[e.ordinal()];
+    }
+}
@@ -0,0 +1,156 @@
+package org.megastage.vase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DatabaseListener} that keeps a latency histogram per entity class and operation.  Recording is
+ * lock free and does not allocate once the histogram of a class and operation exists.  Latencies are
+ * bucketed with a relative error of about 3% up to about 73 minutes; longer operations count as 73 minutes.
+ *
+ * <pre>
+ * LatencyRecorder recorder = new LatencyRecorder();
+ * db.setListener(recorder);
+ * ...
+ * recorder.getStats().forEach(System.out::println);
+ * </pre>
+ */
+public class LatencyRecorder implements DatabaseListener {
+    private static final DatabaseListener.Operation[] OPERATIONS = DatabaseListener.Operation.values();
+
+    private final ConcurrentHashMap<Class<?>, AtomicReferenceArray<Histogram>> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void operationCompleted(Class<?> clazz, Operation operation, int rows, long acquireNanos, long executeNanos) {
+        Histogram histogram = histogram(clazz, operation);
+        histogram.record(acquireNanos + executeNanos);
+        histogram.rows.add(rows);
+        histogram.acquireNanos.add(acquireNanos);
+    }
+
+    @Override
+    public void operationFailed(Class<?> clazz, Operation operation, long elapsedNanos, Exception e) {
+        histogram(clazz, operation).failures.increment();
+    }
+
+    /**
+     * Returns the statistics of one entity class and operation, or null if it has not been recorded.
+     */
+    public LatencyStats getStats(Class<?> clazz, Operation operation) {
+        AtomicReferenceArray<Histogram> byOperation = histograms.get(clazz);
+        Histogram histogram = byOperation == null ? null : byOperation.get(operation.ordinal());
+        return histogram == null ? null : histogram.stats(clazz, operation);
+    }
+
+    /**
+     * Returns the statistics of every entity class and operation recorded so far.
+     */
+    public List<LatencyStats> getStats() {
+        List<LatencyStats> stats = new ArrayList<>();
+        for(Map.Entry<Class<?>, AtomicReferenceArray<Histogram>> e: histograms.entrySet()) {
+            for(Operation operation: OPERATIONS) {
+                Histogram histogram = e.getValue().get(operation.ordinal());
+                if(histogram != null) {
+                    stats.add(histogram.stats(e.getKey(), operation));
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        histograms.clear();
+    }
+
+    private Histogram histogram(Class<?> clazz, Operation operation) {
+        AtomicReferenceArray<Histogram> byOperation = histograms.get(clazz);
+        if(byOperation == null) {
+            byOperation = histograms.computeIfAbsent(clazz, c -> new AtomicReferenceArray<>(OPERATIONS.length));
+        }
+        Histogram histogram = byOperation.get(operation.ordinal());
+        if(histogram == null) {
+            byOperation.compareAndSet(operation.ordinal(), null, new Histogram());
+            histogram = byOperation.get(operation.ordinal());
+        }
+        return histogram;
+    }
+
+    /**
+     * Log-linear histogram: values below 32 have a bucket each, above that every power of two is split
+     * into 32 buckets.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int MAX_EXPONENT = 41;
+        private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT);
+        private final LongAdder totalNanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder acquireNanos = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        void record(long nanos) {
+            long value = Math.min(Math.max(nanos, 0L), MAX_VALUE);
+            counts.incrementAndGet(index(value));
+            totalNanos.add(value);
+        }
+
+        static int index(long value) {
+            if(value < SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+        }
+
+        /**
+         * Returns the largest value that falls in the bucket.
+         */
+        static long highestValue(int index) {
+            if(index < SUB_COUNT) {
+                return index;
+            }
+            int shift = index / SUB_COUNT - 1;
+            long sub = index % SUB_COUNT;
+            return ((SUB_COUNT + sub + 1) << shift) - 1;
+        }
+
+        LatencyStats stats(Class<?> clazz, Operation operation) {
+            long[] snapshot = new long[counts.length()];
+            long count = 0;
+            for(int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                count += snapshot[i];
+            }
+            return new LatencyStats(clazz, operation, count, failures.sum(), rows.sum(),
+                    totalNanos.sum(), acquireNanos.sum(),
+                    percentile(snapshot, count, 0.5), percentile(snapshot, count, 0.99),
+                    percentile(snapshot, count, 0.999), percentile(snapshot, count, 1.0));
+        }
+
+        private static long percentile(long[] snapshot, long count, double p) {
+            if(count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for(int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if(seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.megastage.vase;
+
+/**
+ * Point in time summary of one entity class and operation recorded by {@link LatencyRecorder}.
+ * Latencies include the time to acquire connections.  Percentiles are upper bounds of histogram buckets.
+ */
+public class LatencyStats {
+    private final Class<?> entityClass;
+    private final DatabaseListener.Operation operation;
+    private final long count;
+    private final long failures;
+    private final long rows;
+    private final long totalNanos;
+    private final long acquireNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+
+    LatencyStats(Class<?> entityClass, DatabaseListener.Operation operation, long count, long failures, long rows,
+                 long totalNanos, long acquireNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+        this.entityClass = entityClass;
+        this.operation = operation;
+        this.count = count;
+        this.failures = failures;
+        this.rows = rows;
+        this.totalNanos = totalNanos;
+        this.acquireNanos = acquireNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public DatabaseListener.Operation getOperation() {
+        return operation;
+    }
+
+    /** Successful operations. */
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    /** Rows created, read, updated or deleted by the successful operations. */
+    public long getRows() {
+        return rows;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /** Part of the total time spent borrowing connections. */
+    public long getAcquireNanos() {
+        return acquireNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public double getMeanMillis() {
+        return count == 0 ? 0.0 : totalNanos / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyStats(%s %s, count=%d, failures=%d, rows=%d, meanMillis=%.3f, " +
+                        "p50Millis=%.3f, p99Millis=%.3f, p999Millis=%.3f, maxMillis=%.3f, acquireMillis=%.3f)",
+                entityClass.getSimpleName(), operation, count, failures, rows, getMeanMillis(),
+                p50Nanos / 1e6, p99Nanos / 1e6, p999Nanos / 1e6, maxNanos / 1e6, acquireNanos / 1e6);
+    }
+}
@@ -29,8 +29,8 @@ public class NamedParameterStatement implements AutoCloseable {
     /** The statement this object is wrapping. */
     protected final PreparedStatement statement;
 
-    /** Maps parameter names to arrays of ints which are the parameter indices. */
-    private final Map<String, int[]> indexMap = new HashMap<>();
+    /** The parsed query with the parameter indices by name. */
+    private final QueryTemplate template;
 
     /**
      * Creates a NamedParameterStatement.  Wraps a call to
@@ -40,8 +40,21 @@ public class NamedParameterStatement implements AutoCloseable {
      * @throws SQLException if the statement could not be created
      */
     public NamedParameterStatement(Connection connection, String query) throws SQLException {
-        String parsedQuery = parse(query, indexMap);
-        statement = connection.prepareStatement(parsedQuery);
+        template = QueryTemplate.of(query);
+        statement = connection.prepareStatement(template.getParsedQuery());
+    }
+
+    /**
+     * Creates a NamedParameterStatement.  Wraps a call to
+     * c.{@link Connection#prepareStatement(java.lang.String, int) prepareStatement}.
+     * @param connection        the database connection
+     * @param query             the parameterized query
+     * @param autoGeneratedKeys {@link Statement#RETURN_GENERATED_KEYS} or {@link Statement#NO_GENERATED_KEYS}
+     * @throws SQLException if the statement could not be created
+     */
+    public NamedParameterStatement(Connection connection, String query, int autoGeneratedKeys) throws SQLException {
+        template = QueryTemplate.of(query);
+        statement = connection.prepareStatement(template.getParsedQuery(), autoGeneratedKeys);
     }
 
     /**
@@ -49,67 +62,18 @@ public class NamedParameterStatement implements AutoCloseable {
      * parsed query is returned.
      * @param query    query to parse
      * @return the parsed query
+     * @see QueryTemplate#of(String)
      */
     public static String parse(String query, Map<String, int[]> indexMap) {
-        HashMap<String, List<Integer>> paramMap = new HashMap<>();
-
-        int length = query.length();
-        StringBuilder parsedQuery = new StringBuilder(length);
-        boolean inSingleQuote = false;
-        boolean inDoubleQuote = false;
-        int index=1;
-
-        for(int i = 0; i < length; i++) {
-            char c = query.charAt(i);
-            if(inSingleQuote) {
-                if(c == '\'') {
-                    inSingleQuote=false;
-                }
-            } else if(inDoubleQuote) {
-                if(c == '"') {
-                    inDoubleQuote=false;
-                }
-            } else {
-                if(c == '\'') {
-                    inSingleQuote=true;
-                } else if(c == '"') {
-                    inDoubleQuote=true;
-                } else if(isValidPrefix(query, i, c)) {
-                    int j = i + 2;
-                    while(j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
-                        j++;
-                    }
-                    String name = query.substring(i+1, j);
-                    c = '?'; // replace the parameter with a question mark
-                    i += name.length(); // skip past the end if the parameter
-
-                    paramMap.computeIfAbsent(name, k -> new LinkedList<>()).add(index++);
-                }
-            }
-            parsedQuery.append(c);
-        }
-
-        for (Map.Entry<String, List<Integer>> entry : paramMap.entrySet()) {
-            String key = entry.getKey();
-            List<Integer> list = entry.getValue();
-            int[] indexes = new int[list.size()];
-
-            Iterator<Integer> iter = list.iterator();
-            for (int i=0; iter.hasNext(); i++) {
-                indexes[i] = iter.next();
-            }
-
-            indexMap.put(key, indexes);
-        }
-
-        return parsedQuery.toString();
+        return QueryTemplate.parse(query, indexMap);
     }
 
-    private static boolean isValidPrefix(String query, int i, char c) {
-        int length = query.length();
-        return c == ':'
-                && (i+1 < length && Character.isJavaIdentifierStart(query.charAt(i+1)))
-                && (i > 0 && query.charAt(i-1) != ':');
+    /**
+     * Returns the parsed query template of this statement.
+     * @return the template
+     */
+    public QueryTemplate getTemplate() {
+        return template;
     }
 
     /**
@@ -119,13 +83,22 @@ public class NamedParameterStatement implements AutoCloseable {
      * @throws IllegalArgumentException if the parameter does not exist
      */
     private int[] getIndexes(String name) {
-        int[] indexes = indexMap.get(name);
+        int[] indexes = template.getIndexMap().get(name);
         if(indexes==null) {
             throw new IllegalArgumentException("Parameter not found: " + name);
         }
         return indexes;
     }
 
+    /**
+     * Returns the indexes for a parameter, or an empty array if the parameter does not exist.
+     * @param name parameter name
+     * @return parameter indexes
+     */
+    int[] findIndexes(String name) {
+        return template.getIndexes(name);
+    }
+
     /**
      * Sets a parameter.
      * @param name  parameter name
@@ -141,9 +114,9 @@ public class NamedParameterStatement implements AutoCloseable {
     }
 
     public void setObjectEx(String name, Object value) throws SQLException {
-        try {
-            setObject(name, value);
-        } catch (IllegalArgumentException ignored) {}
+        for(int index : findIndexes(name)) {
+            statement.setObject(index, value);
+        }
     }
 
     /**
@@ -161,9 +134,9 @@ public class NamedParameterStatement implements AutoCloseable {
     }
 
     public void setStringEx(String name, String value) throws SQLException {
-        try {
-            setString(name, value);
-        } catch (IllegalArgumentException ignored) {}
+        for(int index : findIndexes(name)) {
+            statement.setString(index, value);
+        }
     }
 
     /**
@@ -181,9 +154,9 @@ public class NamedParameterStatement implements AutoCloseable {
     }
 
     public void setIntEx(String name, int value) throws SQLException {
-        try {
-            setInt(name, value);
-        } catch (IllegalArgumentException ignored) {}
+        for(int index : findIndexes(name)) {
+            statement.setInt(index, value);
+        }
     }
 
     /**
@@ -215,9 +188,9 @@ public class NamedParameterStatement implements AutoCloseable {
     }
 
     public void setTimestampEx(String name, Timestamp value) throws SQLException {
-        try {
-            setTimestamp(name, value);
-        } catch (IllegalArgumentException ignored) {}
+        for(int index : findIndexes(name)) {
+            statement.setTimestamp(index, value);
+        }
     }
 
     /**
@@ -235,11 +208,23 @@ public class NamedParameterStatement implements AutoCloseable {
     }
 
     public void setBooleanEx(String name, boolean value) throws SQLException {
-        try {
-            for(int index : getIndexes(name)) {
-                statement.setBoolean(index, value);
-            }
-        } catch (IllegalArgumentException ignored) {}
+        for(int index : findIndexes(name)) {
+            statement.setBoolean(index, value);
+        }
+    }
+
+    /**
+     * Sets a parameter.
+     * @param name  parameter name
+     * @param value parameter value
+     * @throws SQLException if an error occurred
+     * @throws IllegalArgumentException if the parameter does not exist
+     * @see PreparedStatement#setArray(int, java.sql.Array)
+     */
+    public void setArray(String name, Array value) throws SQLException {
+        for(int index : getIndexes(name)) {
+            statement.setArray(index, value);
+        }
     }
 
     /**
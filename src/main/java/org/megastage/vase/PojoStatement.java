@@ -3,17 +3,28 @@ package org.megastage.vase;
 import com.esotericsoftware.minlog.Log;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.sql.*;
 import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class PojoStatement extends NamedParameterStatement {
     protected ResultSet rs;
 
+    /** Column index plan of the last mapped class, reused across rows and executions. */
+    private ColumnPlan columnPlan;
+
+    /** Parameter index plan of the last bound class, reused across rows and executions. */
+    private BindingPlan bindingPlan;
+
     public PojoStatement(Connection connection, String query) throws SQLException {
         super(connection, query);
     }
 
+    public PojoStatement(Connection connection, String query, int autoGeneratedKeys) throws SQLException {
+        super(connection, query, autoGeneratedKeys);
+    }
+
     /**
      * Returns the underlying result set.
      * @return the result set
@@ -51,50 +62,183 @@ public class PojoStatement extends NamedParameterStatement {
     }
 
     public <T> T execute_READ(Class<T> clazz, Object keyValue) throws SQLException {
-        Field keyField = VaseUtil.getKeyField(clazz);
+        Field keyField = EntityMetadata.of(clazz).getKeyField();
 
-        if (Enum.class.isAssignableFrom(keyField.getType())) {
-            setString(keyField.getName(), String.valueOf(keyValue));
-        } else {
-            setObject(keyField.getName(), keyValue);
-        }
+        setColumnValue(keyField.getName(), keyField.getType(), keyValue);
         return execute_READ(clazz);
     }
 
     public <T> T execute_READ(Class<T> clazz) throws SQLException {
-        try {
-            try(ResultSet rs = executeQuery()) {
-                if(rs.next()) {
-                    T item = setValuesTo(clazz.newInstance());
-                    if(Log.DEBUG) Log.debug("VASE/READ", item.toString());
-                    return item;
-                }
-                if(Log.DEBUG) Log.warn("VASE/READ", "null");
-                return null;
+        EntityMapper<T> mapper = EntityMapper.of(clazz);
+        try(ResultSet rs = executeQuery()) {
+            if(rs.next()) {
+                T item = setValuesTo(mapper.newInstance());
+                if(Log.DEBUG) Log.debug("VASE/READ", item.toString());
+                return item;
             }
-        } catch (IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            Log.error("VASE/READ", e.getMessage());
-            throw new RuntimeException(e);
+            if(Log.DEBUG) Log.warn("VASE/READ", "null");
+            return null;
+        }
+    }
+
+    /**
+     * Reads the rows whose key is in keys with a single statement.
+     * @param clazz entity class
+     * @param keys  key values
+     * @return the rows found, in no particular order
+     * @throws SQLException if an error occurred
+     */
+    public <T> List<T> execute_READ_MANY(Class<T> clazz, Collection<?> keys) throws SQLException {
+        Array array = createArray(EntityMetadata.of(clazz).getKeyField().getType(), keys);
+        try {
+            setArray("keys", array);
+            return execute_READ_ALL(clazz);
+        } finally {
+            array.free();
         }
     }
 
+    /**
+     * Reads at most limit rows in key order, starting after the given key.
+     * @param clazz    entity class
+     * @param afterKey last key of the previous page, or null for the first page
+     * @param limit    maximum number of rows
+     * @return the rows
+     * @throws SQLException if an error occurred
+     */
+    public <T> List<T> execute_READ_PAGE(Class<T> clazz, Object afterKey, int limit) throws SQLException {
+        if(afterKey != null) {
+            setColumnValue("after", EntityMetadata.of(clazz).getKeyField().getType(), afterKey);
+        }
+        setInt("limit", limit);
+        return execute_READ_ALL(clazz);
+    }
+
     public <T> List<T> execute_READ_ALL(Class<T> clazz) throws SQLException {
+        EntityMapper<T> mapper = EntityMapper.of(clazz);
         ArrayList<T> result = new ArrayList<>();
         try(ResultSet rs = executeQuery()) {
             while(rs.next()) {
-                T item = setValuesTo(clazz.newInstance());
+                T item = setValuesTo(mapper.newInstance());
                 if(Log.DEBUG) Log.debug("VASE/READ_ALL", item.toString());
                 result.add(item);
             }
             return result;
-        } catch (IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            Log.error("VASE/READ_ALL", e.getMessage());
-            throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Executes the query with the given fetch size and reads the columns into primitive arrays.
+     * @param clazz     entity class of the columns
+     * @param fetchSize number of rows the driver fetches per round trip
+     * @param columns   the selected columns, in select order
+     * @return the columns
+     * @throws SQLException if an error occurred
+     */
+    public ColumnarResult execute_READ_COLUMNS(Class<?> clazz, int fetchSize, String... columns) throws SQLException {
+        statement.setFetchSize(fetchSize);
+        try(ResultSet rs = executeQuery()) {
+            ColumnarResult result = ColumnarResult.read(rs, clazz, columns);
+            if(Log.DEBUG) Log.debug("VASE/READ_COLUMNS", String.format("%s -> %d rows", clazz.getSimpleName(), result.size()));
+            return result;
+        }
+    }
+
+    /**
+     * Executes a query returning a single number, such as SELECT count(*).
+     * @return the number in the first column of the first row
+     * @throws SQLException if an error occurred
+     */
+    public long execute_COUNT() throws SQLException {
+        try(ResultSet rs = executeQuery()) {
+            long count = rs.next() ? rs.getLong(1) : 0;
+            if(Log.DEBUG) Log.debug("VASE/COUNT", String.valueOf(count));
+            return count;
+        }
+    }
+
+    /**
+     * Executes a query returning a single boolean, such as SELECT EXISTS(...).
+     * @return the boolean in the first column of the first row
+     * @throws SQLException if an error occurred
+     */
+    public boolean execute_EXISTS() throws SQLException {
+        try(ResultSet rs = executeQuery()) {
+            boolean exists = rs.next() && rs.getBoolean(1);
+            if(Log.DEBUG) Log.debug("VASE/EXISTS", String.valueOf(exists));
+            return exists;
+        }
+    }
+
+    /**
+     * Executes the query with the given fetch size and maps the rows lazily as the stream is consumed.
+     * The stream owns this statement: closing the stream closes the result set, the statement and
+     * finally calls onClose.
+     * @param clazz     entity class
+     * @param fetchSize number of rows the driver fetches per round trip
+     * @param onClose   release action run after the statement has been closed
+     * @return the rows as a sequential stream
+     * @throws SQLException if an error occurred
+     */
+    public <T> Stream<T> execute_STREAM(Class<T> clazz, int fetchSize, AutoCloseable onClose) throws SQLException {
+        try {
+            statement.setFetchSize(fetchSize);
+            executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        EntityMapper<T> mapper = EntityMapper.of(clazz);
+        Iterator<T> it = new Iterator<T>() {
+            private Boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                if(ready == null) {
+                    try {
+                        ready = rs.next();
+                    } catch (SQLException e) {
+                        Log.error("VASE/STREAM", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                }
+                return ready;
+            }
+
+            @Override
+            public T next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = null;
+                try {
+                    T item = setValuesTo(mapper.newInstance());
+                    if(Log.DEBUG) Log.debug("VASE/STREAM", item.toString());
+                    return item;
+                } catch (SQLException e) {
+                    Log.error("VASE/STREAM", e.getMessage());
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        try {
+                            rs.close();
+                            close();
+                        } finally {
+                            onClose.close();
+                        }
+                    } catch (Exception e) {
+                        Log.error("VASE/STREAM", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                });
+    }
+
     public <T> T execute_CREATE(T item) throws SQLException {
         setValuesFrom(item);
         try (ResultSet rs = executeQuery()) {
@@ -109,6 +253,43 @@ public class PojoStatement extends NamedParameterStatement {
         return item;
     }
 
+    /**
+     * Inserts items in JDBC batches of at most batchSize rows.  The statement must be prepared with
+     * {@link Statement#RETURN_GENERATED_KEYS} so that the returned rows can be written back into the items.
+     * @param items     items to insert, all of the same class
+     * @param batchSize maximum number of rows sent in one batch
+     * @return the items
+     * @throws SQLException if an error occurred
+     */
+    public <T> List<T> execute_CREATE_ALL(List<T> items, int batchSize) throws SQLException {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        for(int from = 0; from < items.size(); from += batchSize) {
+            List<T> batch = items.subList(from, Math.min(from + batchSize, items.size()));
+
+            for(T item: batch) {
+                setValuesFrom(item);
+                addBatch();
+            }
+            executeBatch();
+
+            try (ResultSet rs = statement.getGeneratedKeys()) {
+                this.rs = rs;
+                for(T item: batch) {
+                    if(rs.next()) {
+                        setValuesTo(item);
+                        if(Log.DEBUG) Log.debug("VASE/CREATE_ALL", item.toString());
+                    } else {
+                        Log.error("VASE/CREATE_ALL", "null");
+                    }
+                }
+            }
+        }
+        return items;
+    }
+
     public <T> boolean execute_UPDATE(T item) throws SQLException {
         setValuesFrom(item);
         int rows = executeUpdate();
@@ -123,13 +304,9 @@ public class PojoStatement extends NamedParameterStatement {
     }
 
     public <T> boolean execute_DELETE(Class<T> clazz, Object keyValue) throws SQLException {
-        Field keyField = VaseUtil.getKeyField(clazz);
+        Field keyField = EntityMetadata.of(clazz).getKeyField();
 
-        if (Enum.class.isAssignableFrom(keyField.getType())) {
-            setString(keyField.getName(), String.valueOf(keyValue));
-        } else {
-            setObject(keyField.getName(), keyValue);
-        }
+        setColumnValue(keyField.getName(), keyField.getType(), keyValue);
 
         int rows =  executeUpdate();
 
@@ -144,38 +321,154 @@ public class PojoStatement extends NamedParameterStatement {
         return false;
     }
 
-    public void setValuesFrom(Object src) throws SQLException {
-        for(Field f: VaseUtil.getFields(src.getClass())) {
-            try {
-                if(Enum.class.isAssignableFrom(f.getType())) {
-                    setStringEx(f.getName(), f.get(src).toString());
-                } else {
-                    setObjectEx(f.getName(), f.get(src));
+    /**
+     * Updates items in JDBC batches of at most batchSize rows.
+     * @param items     items to update, all of the same class
+     * @param batchSize maximum number of rows sent in one batch
+     * @return for each item, in iteration order, true if exactly one row was updated
+     * @throws SQLException if an error occurred
+     */
+    public <T> boolean[] execute_UPDATE_ALL(Collection<T> items, int batchSize) throws SQLException {
+        if(batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+
+        boolean[] result = new boolean[items.size()];
+        List<T> batch = new ArrayList<>(Math.min(batchSize, items.size()));
+        int done = 0;
+
+        for(Iterator<T> it = items.iterator(); it.hasNext(); ) {
+            T item = it.next();
+            setValuesFrom(item);
+            addBatch();
+            batch.add(item);
+
+            if(batch.size() == batchSize || !it.hasNext()) {
+                int[] rows = executeBatch();
+                for(int i=0; i < rows.length; i++) {
+                    result[done + i] = rows[i] == 1;
+                    if(rows[i] != 1) {
+                        Log.error("DB/UPDATE_ALL", String.format("%s -> %d rows", batch.get(i).toString(), rows[i]));
+                    }
                 }
-            } catch (IllegalAccessException e) {
-                Log.warn("DB", String.format("Illegal access: %s.%s", src.getClass().getName(), f.getName()));
+                if(Log.DEBUG) Log.debug("DB/UPDATE_ALL", String.format("%d items", rows.length));
+                done += rows.length;
+                batch.clear();
             }
         }
+        return result;
     }
 
-    public <T> T setValuesTo(T dst) throws SQLException {
-        for(Field f: VaseUtil.getFields(dst.getClass())) {
-            try {
-                if(Enum.class.isAssignableFrom(f.getType())) {
-                    try {
-                        Method valueOf = f.getType().getMethod("valueOf", String.class);
-                        f.set(dst, valueOf.invoke(null, rs.getString(f.getName())));
-                    } catch ( ReflectiveOperationException e) {
-                        e.printStackTrace();
-                    }
-                } else {
-                    f.set(dst, rs.getObject(f.getName()));
+    /**
+     * Deletes all rows whose key is in keys with a single statement.
+     * @param clazz entity class
+     * @param keys  key values
+     * @return for each key, in iteration order, true if a row was deleted
+     * @throws SQLException if an error occurred
+     */
+    public <T> boolean[] execute_DELETE_ALL(Class<T> clazz, Collection<?> keys) throws SQLException {
+        Field keyField = EntityMetadata.of(clazz).getKeyField();
+
+        Array array = createArray(keyField.getType(), keys);
+
+        Class<?> keyType = keyField.getType();
+        Set<Object> deleted = new HashSet<>();
+        try {
+            setArray("keys", array);
+            try (ResultSet rs = executeQuery()) {
+                while(rs.next()) {
+                    deleted.add(toKeyValue(keyType, rs.getObject(1)));
                 }
+            }
+        } finally {
+            array.free();
+        }
 
-            } catch (IllegalAccessException e) {
-                Log.warn("DB", String.format("Illegal access: %s.%s", dst.getClass().getName(), f.getName()));
+        boolean[] result = new boolean[keys.size()];
+        int i = 0;
+        for(Object key: keys) {
+            result[i] = deleted.contains(toKeyValue(keyType, key));
+            if(!result[i]) {
+                Log.error("DB/DELETE_ALL", String.format("%s(%s=%s) -> 0 rows",
+                        clazz.getSimpleName(), keyField.getName(), key));
             }
+            i++;
+        }
+        if(Log.DEBUG) Log.debug("DB/DELETE_ALL", String.format("%s -> %d rows", clazz.getSimpleName(), deleted.size()));
+
+        return result;
+    }
+
+    /**
+     * Converts a key, as given by the caller or as returned by the driver, to the java type of the key field so
+     * that keys can be compared with equals: enums to constants and numbers to the width of the field.
+     */
+    private static Object toKeyValue(Class<?> type, Object value) {
+        if(value == null) {
+            return null;
+        } else if(type.isEnum()) {
+            return EnumCodec.of(type).toConstant(value);
+        } else if(value instanceof Number) {
+            Number n = (Number) value;
+            if(type == Integer.TYPE || type == Integer.class) {
+                return n.intValue();
+            } else if(type == Long.TYPE || type == Long.class) {
+                return n.longValue();
+            } else if(type == Double.TYPE || type == Double.class) {
+                return n.doubleValue();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Binds a value to a parameter standing for a column of the given type.  Values of enum columns may be
+     * given as constants, names or ordinals and are bound in the form the enum is stored in, see {@link EnumCodec}.
+     * @param name  parameter name
+     * @param type  java type of the column
+     * @param value value, may be null
+     * @throws SQLException if an error occurred
+     */
+    public void setColumnValue(String name, Class<?> type, Object value) throws SQLException {
+        if(value != null && type.isEnum()) {
+            Object encoded = EnumCodec.of(type).encode(value);
+            if(encoded instanceof Short) {
+                setInt(name, (Short) encoded);
+            } else {
+                setString(name, (String) encoded);
+            }
+        } else {
+            setObject(name, value);
+        }
+    }
+
+    /**
+     * Creates an array of column values for an array parameter, see {@link Database#decorateArray(Class, String)}.
+     * The caller frees the array after the statement has been executed.
+     * @param type   java type of the column
+     * @param values values of the column
+     * @return the array
+     * @throws SQLException if an error occurred
+     */
+    public Array createArray(Class<?> type, Collection<?> values) throws SQLException {
+        Object[] elements = type.isEnum()
+                ? values.stream().map(EnumCodec.of(type)::encode).toArray()
+                : values.toArray();
+        return statement.getConnection().createArrayOf(Database.getArrayType(type), elements);
+    }
+
+    public void setValuesFrom(Object src) throws SQLException {
+        if(bindingPlan == null || !bindingPlan.isFor(src.getClass())) {
+            bindingPlan = BindingPlan.build(src.getClass(), this);
+        }
+        bindingPlan.bind(statement, src);
+    }
+
+    public <T> T setValuesTo(T dst) throws SQLException {
+        if(columnPlan == null || !columnPlan.isFor(dst.getClass())) {
+            columnPlan = ColumnPlan.build(dst.getClass(), rs.getMetaData());
         }
+        columnPlan.read(rs, dst);
 
         return dst;
     }
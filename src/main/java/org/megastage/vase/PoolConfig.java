@@ -0,0 +1,97 @@
+package org.megastage.vase;
+
+/**
+ * Sizing and behaviour of the connection pool of {@link DatabaseDataSource}.
+ */
+public class PoolConfig {
+    private int minIdle = 5;
+    private int maxSize = 10;
+    private long acquireTimeoutMillis = 30000;
+    private boolean autoCommit = true;
+    private boolean fair = true;
+    private int statementCacheSize = PooledDatabase.DEFAULT_STATEMENT_CACHE_SIZE;
+
+    /**
+     * Returns a configuration with the pool size derived from the number of available processors,
+     * as a starting point before tuning from {@link PoolMetrics}.
+     */
+    public static PoolConfig forAvailableProcessors() {
+        PoolConfig config = new PoolConfig();
+        int cores = Runtime.getRuntime().availableProcessors();
+        config.setMaxSize(cores * 2);
+        config.setMinIdle(Math.min(cores, config.getMaxSize()));
+        return config;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * Sets the number of connections opened when the pool starts.
+     */
+    public void setMinIdle(int minIdle) {
+        if(minIdle < 0) {
+            throw new IllegalArgumentException("Min idle must not be negative: " + minIdle);
+        }
+        this.minIdle = minIdle;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of connections, idle and borrowed together.
+     */
+    public void setMaxSize(int maxSize) {
+        if(maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a caller waits for a connection before the pool gives up.
+     */
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        if(acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Acquire timeout must not be negative: " + acquireTimeoutMillis);
+        }
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    public boolean isAutoCommit() {
+        return autoCommit;
+    }
+
+    public void setAutoCommit(boolean autoCommit) {
+        this.autoCommit = autoCommit;
+    }
+
+    public boolean isFair() {
+        return fair;
+    }
+
+    /**
+     * Sets whether waiting callers get connections in arrival order.
+     */
+    public void setFair(boolean fair) {
+        this.fair = fair;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        if(statementCacheSize < 1) {
+            throw new IllegalArgumentException("Statement cache size must be positive: " + statementCacheSize);
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+}
@@ -0,0 +1,77 @@
+package org.megastage.vase;
+
+/**
+ * Point in time snapshot of a connection pool.  Counters are cumulative since the pool was created.
+ */
+public class PoolMetrics {
+    private final int active;
+    private final int idle;
+    private final int pending;
+    private final int maxSize;
+    private final long acquireCount;
+    private final long acquireTimeouts;
+    private final long acquireNanos;
+    private final long maxAcquireNanos;
+
+    public PoolMetrics(int active, int idle, int pending, int maxSize,
+                       long acquireCount, long acquireTimeouts, long acquireNanos, long maxAcquireNanos) {
+        this.active = active;
+        this.idle = idle;
+        this.pending = pending;
+        this.maxSize = maxSize;
+        this.acquireCount = acquireCount;
+        this.acquireTimeouts = acquireTimeouts;
+        this.acquireNanos = acquireNanos;
+        this.maxAcquireNanos = maxAcquireNanos;
+    }
+
+    /** Connections currently borrowed. */
+    public int getActive() {
+        return active;
+    }
+
+    /** Open connections waiting in the pool. */
+    public int getIdle() {
+        return idle;
+    }
+
+    /** Callers currently waiting for a connection. */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Successful acquisitions. */
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /** Acquisitions that gave up after the acquire timeout. */
+    public long getAcquireTimeouts() {
+        return acquireTimeouts;
+    }
+
+    /** Total time spent in successful acquisitions, including waiting and opening connections. */
+    public long getAcquireNanos() {
+        return acquireNanos;
+    }
+
+    public long getMaxAcquireNanos() {
+        return maxAcquireNanos;
+    }
+
+    public double getMeanAcquireMillis() {
+        return acquireCount == 0 ? 0.0 : acquireNanos / 1e6 / acquireCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoolMetrics(active=%d, idle=%d, pending=%d, maxSize=%d, acquireCount=%d, " +
+                        "acquireTimeouts=%d, meanAcquireMillis=%.3f, maxAcquireMillis=%.3f)",
+                active, idle, pending, maxSize, acquireCount,
+                acquireTimeouts, getMeanAcquireMillis(), maxAcquireNanos / 1e6);
+    }
+}
@@ -0,0 +1,194 @@
+package org.megastage.vase;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Base class of the backends that borrow a pooled connection for every operation.  Prepared statements
+ * are cached per physical connection, so concurrent callers get both pooling and statement reuse.
+ */
+public abstract class PooledDatabase extends Database {
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    /** Prepared statements by physical connection, dropped when the pool destroys the connection. */
+    private final ConcurrentHashMap<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+    /**
+     * Returns the physical connection behind a connection borrowed from the pool.  Statements are
+     * prepared on the physical connection so that they outlive the borrowed handle.
+     */
+    protected abstract Connection getPhysicalConnection(Connection conn) throws SQLException;
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Sets the number of prepared statements cached per pooled connection.  Applies to connections
+     * that have not cached any statements yet.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if(statementCacheSize < 1) {
+            throw new IllegalArgumentException("Statement cache size must be positive: " + statementCacheSize);
+        }
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Closes and forgets the statements cached for a physical connection.  Pools call this when they
+     * destroy the connection.
+     */
+    protected void evictStatements(Connection physical) {
+        StatementCache cache = statementCaches.remove(physical);
+        if(cache != null) {
+            cache.clear();
+        }
+    }
+
+    protected void evictAllStatements() {
+        for(StatementCache cache: statementCaches.values()) {
+            cache.clear();
+        }
+        statementCaches.clear();
+    }
+
+    /**
+     * Called when a statement prepared on the physical connection behind a borrowed connection failed with
+     * a connection error, before the connection is returned.  Pools that can discard a connection on
+     * return should do so.
+     */
+    protected void connectionBroken(Connection conn) {
+    }
+
+    @Override
+    protected void releaseConnection(Connection conn) throws SQLException {
+        conn.close();
+    }
+
+    @Override
+    protected <T> T doCreate(T dao) throws SQLException {
+        return withStatement(dao.getClass(), "CREATE", stmt -> stmt.execute_CREATE(dao));
+    }
+
+    @Override
+    protected <T> List<T> doCreateAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        return withStatement(items.get(0).getClass(), "CREATE_ALL", stmt -> stmt.execute_CREATE_ALL(items, batchSize));
+    }
+
+    @Override
+    protected <T> T doUpsert(T item) throws SQLException {
+        return withStatement(item.getClass(), "UPSERT", stmt -> stmt.execute_CREATE(item));
+    }
+
+    @Override
+    protected <T> List<T> doUpsertAll(List<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return items;
+        }
+        return withStatement(items.get(0).getClass(), "UPSERT_ALL", stmt -> stmt.execute_CREATE_ALL(items, batchSize));
+    }
+
+    @Override
+    protected <T> T doRead(Class<T> clazz, Object key) throws SQLException {
+        return withStatement(clazz, "READ", stmt -> stmt.execute_READ(clazz, key));
+    }
+
+    @Override
+    protected <T> List<T> doReadAll(Class<T> clazz) throws SQLException {
+        return withStatement(clazz, "READ_ALL", stmt -> stmt.execute_READ_ALL(clazz));
+    }
+
+    @Override
+    protected <T> Stream<T> doStream(Class<T> clazz, int fetchSize) throws SQLException {
+        Connection conn = getConnection();
+        try {
+            conn.setAutoCommit(false);
+            PojoStatement stmt = create_READ_ALL(conn, clazz);
+            return stmt.execute_STREAM(clazz, fetchSize, () -> {
+                try {
+                    endStream(conn);
+                } finally {
+                    conn.close();
+                }
+            });
+        } catch (SQLException | RuntimeException e) {
+            try {
+                endStream(conn);
+            } finally {
+                conn.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected <T> boolean doUpdate(T item, String stmtName) throws SQLException {
+        return withStatement(item.getClass(), stmtName, stmt -> stmt.execute_UPDATE(item));
+    }
+
+    @Override
+    protected <T> boolean[] doUpdateAll(Collection<T> items, int batchSize) throws SQLException {
+        if(items.isEmpty()) {
+            return new boolean[0];
+        }
+        return withStatement(items.iterator().next().getClass(), "UPDATE", stmt -> stmt.execute_UPDATE_ALL(items, batchSize));
+    }
+
+    @Override
+    protected <T> boolean doDelete(Class<T> clazz, Object key) throws SQLException {
+        return withStatement(clazz, "DELETE", stmt -> stmt.execute_DELETE(clazz, key));
+    }
+
+    @Override
+    protected <T> boolean[] doDeleteAll(Class<T> clazz, Collection<?> keys) throws SQLException {
+        if(keys.isEmpty()) {
+            return new boolean[0];
+        }
+        return withStatement(clazz, "DELETE_ALL", stmt -> stmt.execute_DELETE_ALL(clazz, keys));
+    }
+
+    @Override
+    protected <R> R doWithStatement(Class<?> clazz, String stmtName, StatementWork<R> work) throws SQLException {
+        return withStatement(clazz, stmtName, work);
+    }
+
+    /**
+     * Borrows a connection and runs the work with the statement cached for that connection.  A statement
+     * that failed is dropped from the cache so that no half bound parameters or batches are reused.  After
+     * a connection error all statements of the connection are dropped and the pool is told through
+     * {@link #connectionBroken(Connection)}.
+     */
+    <R> R withStatement(Class<?> clazz, String stmtName, StatementWork<R> work) throws SQLException {
+        long start = acquiringConnection();
+        try(Connection conn = getConnection()) {
+            connectionAcquired(start);
+            Connection physical = getPhysicalConnection(conn);
+            StatementCache cache = statementCaches.computeIfAbsent(
+                    physical, c -> new StatementCache(c, statementCacheSize));
+
+            try {
+                return work.execute(cache.get(this, clazz, stmtName));
+            } catch (SQLException e) {
+                if(ConnectionPool.isConnectionError(e)) {
+                    evictStatements(physical);
+                    connectionBroken(conn);
+                } else {
+                    cache.remove(clazz, stmtName);
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                cache.remove(clazz, stmtName);
+                throw e;
+            }
+        }
+    }
+}
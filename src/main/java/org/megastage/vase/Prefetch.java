@@ -0,0 +1,74 @@
+package org.megastage.vase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Entities together with the entities their {@link SqlReferences} fields point to, loaded with one query
+ * per relation by {@link Database#prefetch(List, String...)}.  Looking up a referenced entity does not
+ * touch the database.
+ */
+public final class Prefetch<T> {
+    private final List<T> items;
+    private final Map<String, Relation> relations = new HashMap<>();
+
+    Prefetch(List<T> items) {
+        this.items = items;
+    }
+
+    void add(String field, EntityMapper.Property property, Class<?> target, Map<Object, ?> lookup) {
+        relations.put(field, new Relation(property, target, lookup));
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the entity referenced by a prefetched field of an item, or null if the field is null or
+     * no entity has the referenced key.
+     * @param item   one of the items
+     * @param field  the prefetched field
+     * @param target the class named by the {@link SqlReferences} annotation of the field
+     * @return the referenced entity
+     */
+    public <R> R get(T item, String field, Class<R> target) {
+        Relation relation = relation(field, target);
+        Object key = relation.property.get(item);
+        return key == null ? null : target.cast(relation.lookup.get(key));
+    }
+
+    /**
+     * Returns the referenced entities of a prefetched field by key.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Map<Object, R> getLookup(String field, Class<R> target) {
+        return Collections.unmodifiableMap((Map<Object, R>) relation(field, target).lookup);
+    }
+
+    private Relation relation(String field, Class<?> target) {
+        Relation relation = relations.get(field);
+        if(relation == null) {
+            throw new IllegalArgumentException("Field was not prefetched: " + field);
+        }
+        if(relation.target != target) {
+            throw new IllegalArgumentException(String.format("Field %s references %s, not %s",
+                    field, relation.target.getName(), target.getName()));
+        }
+        return relation;
+    }
+
+    private static class Relation {
+        final EntityMapper.Property property;
+        final Class<?> target;
+        final Map<Object, ?> lookup;
+
+        Relation(EntityMapper.Property property, Class<?> target, Map<Object, ?> lookup) {
+            this.property = property;
+            this.target = target;
+            this.lookup = lookup;
+        }
+    }
+}
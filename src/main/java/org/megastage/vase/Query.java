@@ -0,0 +1,278 @@
+package org.megastage.vase;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Query over the rows of an entity class, built with {@link Database#find(Class)}.  Conditions are
+ * combined with AND.  Values are always sent as parameters, so the generated SQL depends only on the
+ * columns and operators used and its prepared statements are cached like those of the CRUD operations.
+ *
+ * <pre>
+ * List&lt;Car&gt; cars = db.find(Car.class).where("owner", Query.Op.EQ, 42).orderBy("id").limit(10).list();
+ * </pre>
+ */
+public class Query<T> {
+    public enum Op {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">="),
+        /** Matches any value of a collection or array. */
+        IN("= ANY");
+
+        private final String sql;
+
+        Op(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private final Database db;
+    private final Class<T> clazz;
+    private final EntityMetadata<T> metadata;
+
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<String> order = new ArrayList<>();
+    private final List<String> prefetch = new ArrayList<>();
+    private String selectList = "*";
+    private int limit = -1;
+
+    Query(Database db, Class<T> clazz) {
+        this.db = db;
+        this.clazz = clazz;
+        this.metadata = EntityMetadata.of(clazz);
+    }
+
+    /**
+     * Adds the condition column op value.  A null value with {@link Op#EQ} or {@link Op#NE} compares with
+     * IS NULL or IS NOT NULL.
+     */
+    public Query<T> where(String column, Op op, Object value) {
+        Class<?> type = metadata.getMapper().getProperty(column).getType();
+        if(value == null && op != Op.EQ && op != Op.NE) {
+            throw new IllegalArgumentException("Null value for " + op + " on " + column);
+        }
+        conditions.add(new Condition(column, type, op, op == Op.IN ? asCollection(value) : value));
+        return this;
+    }
+
+    /**
+     * Selects only the given columns and the key for {@link #list()}, {@link #first()} and {@link #fetch()}.
+     * The other fields of the returned entities are left as the no-arg constructor set them.
+     */
+    public Query<T> select(String... columns) {
+        selectList = metadata.selectList(columns);
+        return this;
+    }
+
+    public Query<T> orderBy(String column) {
+        metadata.getMapper().getProperty(column);
+        order.add(column);
+        return this;
+    }
+
+    public Query<T> orderByDesc(String column) {
+        metadata.getMapper().getProperty(column);
+        order.add(column + " DESC");
+        return this;
+    }
+
+    public Query<T> limit(int limit) {
+        if(limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Loads the entities referenced by the {@link SqlReferences} field along with the rows of {@link #fetch()}.
+     */
+    public Query<T> prefetch(String field) {
+        if(metadata.getMapper().getProperty(field).getField().getAnnotation(SqlReferences.class) == null) {
+            throw new IllegalArgumentException(String.format("SqlReferences is not specified in %s.%s",
+                    clazz.getName(), field));
+        }
+        prefetch.add(field);
+        return this;
+    }
+
+    /**
+     * Returns the matching rows together with the entities of the prefetched relations, loaded with one
+     * query per relation.
+     * @return the rows and the referenced entities
+     * @throws SQLException if an error occurred
+     */
+    public Prefetch<T> fetch() throws SQLException {
+        return db.prefetch(list(), prefetch.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the matching rows.
+     * @return the rows in the requested order
+     * @throws SQLException if an error occurred
+     */
+    public List<T> list() throws SQLException {
+        String sql = select(limit >= 0);
+        List<T> items = db.doWithStatement(clazz, Database.SQL_STATEMENT + sql, stmt -> {
+            List<Array> arrays = bind(stmt);
+            try {
+                if(limit >= 0) {
+                    stmt.setInt("limit", limit);
+                }
+                return stmt.execute_READ_ALL(clazz);
+            } finally {
+                free(arrays);
+            }
+        });
+        items.forEach(db::snapshot);
+        return items;
+    }
+
+    /**
+     * Returns the first matching row, or null if no row matches.
+     */
+    public T first() throws SQLException {
+        String sql = select(true);
+        T item = db.doWithStatement(clazz, Database.SQL_STATEMENT + sql, stmt -> {
+            List<Array> arrays = bind(stmt);
+            try {
+                stmt.setInt("limit", 1);
+                return stmt.execute_READ(clazz);
+            } finally {
+                free(arrays);
+            }
+        });
+        db.snapshot(item);
+        return item;
+    }
+
+    /**
+     * Returns the number of matching rows.  Order and limit are ignored.
+     */
+    public long count() throws SQLException {
+        String sql = "SELECT count(*) FROM " + metadata.getTableName() + where();
+        return db.doWithStatement(clazz, Database.SQL_STATEMENT + sql, stmt -> {
+            List<Array> arrays = bind(stmt);
+            try {
+                return stmt.execute_COUNT();
+            } finally {
+                free(arrays);
+            }
+        });
+    }
+
+    /**
+     * Returns true if any row matches.  The database stops at the first matching row.
+     */
+    public boolean exists() throws SQLException {
+        String sql = "SELECT EXISTS(SELECT 1 FROM " + metadata.getTableName() + where() + ")";
+        return db.doWithStatement(clazz, Database.SQL_STATEMENT + sql, stmt -> {
+            List<Array> arrays = bind(stmt);
+            try {
+                return stmt.execute_EXISTS();
+            } finally {
+                free(arrays);
+            }
+        });
+    }
+
+    public List<T> safeList() {
+        try { return list(); }
+        catch(SQLException e) {
+            Log.error("DB", "safeList failed", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String select(boolean limited) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(selectList)
+                .append(" FROM ").append(metadata.getTableName()).append(where());
+        if(!order.isEmpty()) {
+            sql.append(" ORDER BY ").append(String.join(", ", order));
+        }
+        if(limited) {
+            sql.append(" LIMIT :limit");
+        }
+        return sql.toString();
+    }
+
+    private String where() {
+        if(conditions.isEmpty()) {
+            return "";
+        }
+
+        List<String> parts = new ArrayList<>(conditions.size());
+        for(int i = 0; i < conditions.size(); i++) {
+            Condition c = conditions.get(i);
+            String param = "p" + i;
+            if(c.value == null) {
+                parts.add(c.column + (c.op == Op.EQ ? " IS NULL" : " IS NOT NULL"));
+            } else if(c.op == Op.IN) {
+                parts.add(String.format("%s = ANY(%s)", c.column, EntityMetadata.arrayPlaceholder(c.type, param)));
+            } else {
+                parts.add(String.format("%s %s %s", c.column, c.op.sql, EntityMetadata.placeholder(c.type, param)));
+            }
+        }
+        return " WHERE " + String.join(" AND ", parts);
+    }
+
+    private List<Array> bind(PojoStatement stmt) throws SQLException {
+        List<Array> arrays = new ArrayList<>();
+        for(int i = 0; i < conditions.size(); i++) {
+            Condition c = conditions.get(i);
+            String param = "p" + i;
+            if(c.value == null) {
+                continue;
+            }
+            if(c.op == Op.IN) {
+                Array array = stmt.createArray(c.type, (Collection<?>) c.value);
+                arrays.add(array);
+                stmt.setArray(param, array);
+            } else {
+                stmt.setColumnValue(param, c.type, c.value);
+            }
+        }
+        return arrays;
+    }
+
+    private static void free(List<Array> arrays) throws SQLException {
+        for(Array array: arrays) {
+            array.free();
+        }
+    }
+
+    private static Collection<?> asCollection(Object value) {
+        if(value instanceof Collection) {
+            return (Collection<?>) value;
+        } else if(value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        } else if(value.getClass().isArray()) {
+            int length = java.lang.reflect.Array.getLength(value);
+            List<Object> values = new ArrayList<>(length);
+            for(int i = 0; i < length; i++) {
+                values.add(java.lang.reflect.Array.get(value, i));
+            }
+            return values;
+        }
+        throw new IllegalArgumentException("IN needs a collection or an array: " + value);
+    }
+
+    private static class Condition {
+        final String column;
+        final Class<?> type;
+        final Op op;
+        final Object value;
+
+        Condition(String column, Class<?> type, Op op, Object value) {
+            this.column = column;
+            this.type = type;
+            this.op = op;
+            this.value = value;
+        }
+    }
+}
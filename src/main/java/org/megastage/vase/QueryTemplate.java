@@ -0,0 +1,144 @@
+package org.megastage.vase;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A query with named parameters, parsed into JDBC form.  Templates are immutable and shared between
+ * statements on any connection; {@link #of(String)} keeps the most recently used templates in a bounded
+ * cache so a query string is parsed only once.
+ */
+public final class QueryTemplate {
+    public static final int CACHE_SIZE = 1024;
+
+    private static final int[] NO_INDEXES = new int[0];
+
+    private static final LoadingCache<String, QueryTemplate> cache = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build(new CacheLoader<String, QueryTemplate>() {
+                @Override
+                public QueryTemplate load(String query) {
+                    return new QueryTemplate(query);
+                }
+            });
+
+    private final String query;
+    private final String parsedQuery;
+    private final Map<String, int[]> indexMap;
+
+    /**
+     * Returns the cached template of the query, parsing it on first use.
+     * @param query the parameterized query
+     * @return the template
+     */
+    public static QueryTemplate of(String query) {
+        return cache.getUnchecked(query);
+    }
+
+    private QueryTemplate(String query) {
+        HashMap<String, int[]> indexMap = new HashMap<>();
+        this.query = query;
+        this.parsedQuery = parse(query, indexMap);
+        this.indexMap = Collections.unmodifiableMap(indexMap);
+    }
+
+    /**
+     * Parses a query with named parameters.  The parameter-index mappings are put into the map, and the
+     * parsed query is returned.
+     * @param query    query to parse
+     * @param indexMap receives the parameter indexes by name
+     * @return the parsed query
+     */
+    static String parse(String query, Map<String, int[]> indexMap) {
+        int length = query.length();
+        char[] parsedQuery = new char[length];
+        int size = 0;
+        boolean inSingleQuote = false;
+        boolean inDoubleQuote = false;
+        int index=1;
+
+        for(int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if(inSingleQuote) {
+                if(c == '\'') {
+                    inSingleQuote=false;
+                }
+            } else if(inDoubleQuote) {
+                if(c == '"') {
+                    inDoubleQuote=false;
+                }
+            } else {
+                if(c == '\'') {
+                    inSingleQuote=true;
+                } else if(c == '"') {
+                    inDoubleQuote=true;
+                } else if(isValidPrefix(query, i, c)) {
+                    int j = i + 2;
+                    while(j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
+                        j++;
+                    }
+                    String name = query.substring(i+1, j);
+                    c = '?'; // replace the parameter with a question mark
+                    i = j - 1; // skip past the end if the parameter
+
+                    int[] indexes = indexMap.get(name);
+                    if(indexes == null) {
+                        indexes = new int[] { index++ };
+                    } else {
+                        indexes = Arrays.copyOf(indexes, indexes.length + 1);
+                        indexes[indexes.length - 1] = index++;
+                    }
+                    indexMap.put(name, indexes);
+                }
+            }
+            parsedQuery[size++] = c;
+        }
+
+        return new String(parsedQuery, 0, size);
+    }
+
+    private static boolean isValidPrefix(String query, int i, char c) {
+        int length = query.length();
+        return c == ':'
+                && (i+1 < length && Character.isJavaIdentifierStart(query.charAt(i+1)))
+                && (i > 0 && query.charAt(i-1) != ':');
+    }
+
+    /**
+     * Returns the query as given, with named parameters.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the query in JDBC form, with question marks in place of the named parameters.
+     */
+    public String getParsedQuery() {
+        return parsedQuery;
+    }
+
+    /**
+     * Returns the parameter indexes by name.  The arrays are shared and must not be modified.
+     */
+    public Map<String, int[]> getIndexMap() {
+        return indexMap;
+    }
+
+    /**
+     * Returns the indexes for a parameter, or an empty array if the parameter does not exist.  The array
+     * is shared and must not be modified.
+     * @param name parameter name
+     * @return parameter indexes
+     */
+    public int[] getIndexes(String name) {
+        int[] indexes = indexMap.get(name);
+        return indexes == null ? NO_INDEXES : indexes;
+    }
+}
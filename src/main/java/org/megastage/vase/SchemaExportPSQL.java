@@ -24,8 +24,12 @@ public class SchemaExportPSQL {
         Map<String, String> create = new HashMap<>();
         Map<String, String> drop = new HashMap<>();
 
-        for(Class clazz: classes) {
-            String tableName = ((SqlTableName) clazz.getAnnotation(SqlTableName.class)).value();
+        for(Class<?> clazz: classes) {
+            if(clazz.isEnum() && EnumCodec.of(clazz).isOrdinal()) {
+                continue;
+            }
+
+            String tableName = EntityMetadata.tableNameOf(clazz);
             allTables.add(tableName);
 
             if(clazz.isEnum()) {
@@ -33,7 +37,7 @@ public class SchemaExportPSQL {
                 create.put(tableName, String.format("CREATE TYPE %s AS ENUM (%s);\n", tableName, String.join(", ", values)));
                 drop.put(tableName, String.format("DROP TYPE IF EXISTS %s;", tableName));
             } else {
-                List<String> cols = Arrays.stream(VaseUtil.getFields(clazz))
+                List<String> cols = Arrays.stream(EntityMetadata.of(clazz).getFields())
                         .map(f -> exportCol(f, tableName))
                         .collect(Collectors.toList());
 
@@ -88,8 +92,8 @@ public class SchemaExportPSQL {
         return free;
     }
 
-    public String[] getNames(Class<? extends Enum<?>> e) {
-        return Arrays.stream(e.getEnumConstants()).map(Enum::name).toArray(String[]::new);
+    public String[] getNames(Class<?> e) {
+        return Arrays.stream(e.getEnumConstants()).map(c -> ((Enum<?>) c).name()).toArray(String[]::new);
     }
 
     private String exportCol(Field f, String table) {
@@ -97,7 +101,7 @@ public class SchemaExportPSQL {
         if(f.getAnnotation(SqlSerial.class) != null) {
             opts.add("SERIAL");
         } else if(f.getType().isEnum()) {
-            opts.add(f.getType().getAnnotation(SqlTableName.class).value());
+            opts.add(EnumCodec.of(f.getType()).isOrdinal() ? "SMALLINT" : EntityMetadata.tableNameOf(f.getType()));
         } else if(f.getType() == Boolean.TYPE) {
             opts.add("BOOLEAN");
         } else if(f.getType() == Integer.TYPE) {
@@ -118,8 +122,8 @@ public class SchemaExportPSQL {
             if(f.getType() != Integer.TYPE) {
                 throw new RuntimeException(String.format("Referencing field type must by int: %s.%s", f.getDeclaringClass(), f.getName()));
             }
-            Class references = f.getAnnotation(SqlReferences.class).value();
-            String target = ((SqlTableName) references.getAnnotation(SqlTableName.class)).value();
+            Class<?> references = f.getAnnotation(SqlReferences.class).value();
+            String target = EntityMetadata.tableNameOf(references);
             opts.add(String.format("REFERENCES %s", target));
             links.add(new Link(table, target));
         }
@@ -0,0 +1,13 @@
+package org.megastage.vase;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SqlCached {
+    long maxSize() default 10000;
+    long expireAfterSeconds() default 300;
+}
@@ -0,0 +1,15 @@
+package org.megastage.vase;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stores the values of an enum as SMALLINT ordinals instead of a PostgreSQL enum type.  Constants must
+ * then only be added at the end of the enum, since reordering them changes the stored values.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface SqlOrdinal {
+}
@@ -0,0 +1,91 @@
+package org.megastage.vase;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least recently used cache of the PojoStatements prepared on one physical connection, keyed by entity
+ * class and statement name.  Statements pushed out of the cache, removed or left over when the cache is
+ * cleared are closed.
+ */
+final class StatementCache {
+    private final Connection conn;
+    private final LinkedHashMap<Key, PojoStatement> statements;
+
+    StatementCache(Connection conn, int maxSize) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<Key, PojoStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PojoStatement> eldest) {
+                if(size() > maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement or prepares a new one with {@link Database#create_STATEMENT}.
+     */
+    synchronized PojoStatement get(Database db, Class<?> clazz, String stmtName) throws SQLException {
+        Key key = new Key(clazz, stmtName);
+        PojoStatement stmt = statements.get(key);
+        if(stmt == null) {
+            stmt = db.create_STATEMENT(conn, clazz, stmtName);
+            statements.put(key, stmt);
+        }
+        return stmt;
+    }
+
+    synchronized void remove(Class<?> clazz, String stmtName) {
+        closeQuietly(statements.remove(new Key(clazz, stmtName)));
+    }
+
+    synchronized void clear() {
+        for(Iterator<PojoStatement> it = statements.values().iterator(); it.hasNext(); ) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    private static void closeQuietly(PojoStatement stmt) {
+        if(stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                Log.warn("DB", "Closing cached statement failed", e);
+            }
+        }
+    }
+
+    private static final class Key {
+        final Class<?> clazz;
+        final String stmtName;
+
+        Key(Class<?> clazz, String stmtName) {
+            this.clazz = clazz;
+            this.stmtName = stmtName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return clazz == other.clazz && stmtName.equals(other.stmtName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clazz, stmtName);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.megastage.vase;
+
+import com.esotericsoftware.minlog.Log;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Writes queued inside {@link Database#inTransaction(Database.TransactionWork)}.  All work runs on one pinned
+ * connection.  create(), update() and delete() only record the change; {@link #flush()} sends the queued
+ * changes as one JDBC batch per entity class and operation: first the deletes in the reverse order the
+ * classes were first seen, then inserts and updates in that order.  An update or delete that matches no
+ * row fails the flush, and with it the transaction.  Every entity read or written through the unit is
+ * kept in an identity map, so a key resolves to the same instance for the lifetime of the unit.
+ */
+public class UnitOfWork implements AutoCloseable {
+    private final Database db;
+    private final Connection conn;
+
+    private final LinkedHashMap<Class<?>, Pending> pending = new LinkedHashMap<>();
+    private final HashMap<Class<?>, HashMap<String, Object>> identityMap = new HashMap<>();
+    private final HashMap<String, PojoStatement> statements = new HashMap<>();
+
+    /** Entities written by flushes of this unit, applied to the entity caches after commit. */
+    private final List<Object> written = new ArrayList<>();
+    private final List<Object[]> deleted = new ArrayList<>();
+
+    UnitOfWork(Database db, Connection conn) {
+        this.db = db;
+        this.conn = conn;
+    }
+
+    /**
+     * Returns the pinned connection, for statements that Vase does not generate.
+     */
+    public Connection getConnection() {
+        return conn;
+    }
+
+    public <T> T create(T item) {
+        pending(item.getClass()).created.add(item);
+        return item;
+    }
+
+    public <T> T update(T item) {
+        Pending p = pending(item.getClass());
+        if(!p.created.contains(item)) {
+            p.updated.add(item);
+        }
+        return item;
+    }
+
+    public <T> void delete(T item) {
+        Pending p = pending(item.getClass());
+        if(p.created.remove(item)) {
+            return;
+        }
+        p.updated.remove(item);
+        delete(item.getClass(), VaseUtil.getKeyValue(item));
+    }
+
+    public <T> void delete(Class<T> clazz, Object key) {
+        String id = EntityMetadata.of(clazz).keyId(key);
+        Pending p = pending(clazz);
+        Object known = identityMap(clazz).remove(id);
+        if(known != null) {
+            p.updated.remove(known);
+        }
+        p.deleted.put(id, key);
+    }
+
+    /**
+     * Reads an entity by key on the pinned connection.  Returns the instance already known to this unit
+     * if there is one, and null for a key deleted in this unit.
+     */
+    public <T> T read(Class<T> clazz, Object key) throws SQLException {
+        String id = EntityMetadata.of(clazz).keyId(key);
+        Pending p = pending.get(clazz);
+        if(p != null && p.deleted.containsKey(id)) {
+            return null;
+        }
+
+        Object known = identityMap(clazz).get(id);
+        if(known != null) {
+            return clazz.cast(known);
+        }
+
+        T item = statement(clazz, "READ").execute_READ(clazz, key);
+        if(item != null) {
+            identityMap(clazz).put(id, item);
+        }
+        return item;
+    }
+
+    /**
+     * Flushes the queued changes and reads all rows on the pinned connection.  Rows already known to this
+     * unit are returned as the known instances.
+     */
+    public <T> List<T> readAll(Class<T> clazz) throws SQLException {
+        flush();
+
+        EntityMetadata<T> metadata = EntityMetadata.of(clazz);
+        List<T> items = statement(clazz, "READ_ALL").execute_READ_ALL(clazz);
+        if(metadata.hasKey()) {
+            HashMap<String, Object> known = identityMap(clazz);
+            for(ListIterator<T> it = items.listIterator(); it.hasNext(); ) {
+                T item = it.next();
+                Object previous = known.putIfAbsent(metadata.keyId(metadata.getKeyValue(item)), item);
+                if(previous != null) {
+                    it.set(clazz.cast(previous));
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Sends all queued changes to the database without committing.  Deletes go first, so that a row
+     * deleted in this unit can be created again with the same key or unique values.
+     * @throws SQLException if an error occurred, or if an update or delete matched no row because the row
+     *                      was deleted or changed its key meanwhile
+     */
+    public void flush() throws SQLException {
+        List<Map.Entry<Class<?>, Pending>> reversed = new ArrayList<>(pending.entrySet());
+        for(ListIterator<Map.Entry<Class<?>, Pending>> it = reversed.listIterator(reversed.size()); it.hasPrevious(); ) {
+            Map.Entry<Class<?>, Pending> e = it.previous();
+            Class<?> clazz = e.getKey();
+            Pending p = e.getValue();
+
+            if(!p.deleted.isEmpty()) {
+                List<Object> keys = new ArrayList<>(p.deleted.values());
+                p.deleted.clear();
+                boolean[] result = statement(clazz, "DELETE_ALL").execute_DELETE_ALL(clazz, keys);
+                for(Object key: keys) {
+                    deleted.add(new Object[] { clazz, key });
+                }
+                checkAll(clazz, "DELETE", keys, result);
+            }
+        }
+
+        for(Map.Entry<Class<?>, Pending> e: pending.entrySet()) {
+            Class<?> clazz = e.getKey();
+            Pending p = e.getValue();
+
+            if(!p.created.isEmpty()) {
+                List<Object> items = p.created.drain();
+                statement(clazz, "CREATE_ALL").execute_CREATE_ALL(items, db.getBatchSize());
+                register(clazz, items);
+            }
+
+            if(!p.updated.isEmpty()) {
+                List<Object> items = p.updated.drain();
+                boolean[] result = statement(clazz, "UPDATE").execute_UPDATE_ALL(items, db.getBatchSize());
+                checkAll(clazz, "UPDATE", items, result);
+                register(clazz, items);
+            }
+        }
+    }
+
+    private static void checkAll(Class<?> clazz, String operation, List<Object> items, boolean[] result) throws SQLException {
+        for(int i = 0; i < result.length; i++) {
+            if(!result[i]) {
+                throw new SQLException(String.format("%s of %s matched no row: %s",
+                        operation, clazz.getSimpleName(), items.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Brings the entity caches of the database up to date with the committed changes.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void committed() {
+        for(Object item: written) {
+            EntityCache cache = db.getCache(item.getClass());
+            if(cache != null) {
+                cache.put(item);
+            }
+        }
+        for(Object[] key: deleted) {
+            EntityCache<?> cache = db.getCache((Class<?>) key[0]);
+            if(cache != null) {
+                cache.invalidate(key[1]);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for(PojoStatement stmt: statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                Log.warn("DB/UOW", "Closing statement failed", e);
+            }
+        }
+        statements.clear();
+    }
+
+    private void register(Class<?> clazz, List<Object> items) {
+        EntityMetadata<?> metadata = EntityMetadata.of(clazz);
+        if(metadata.hasKey()) {
+            HashMap<String, Object> known = identityMap(clazz);
+            for(Object item: items) {
+                known.put(metadata.keyId(metadata.getKeyValue(item)), item);
+            }
+        }
+        written.addAll(items);
+    }
+
+    private Pending pending(Class<?> clazz) {
+        return pending.computeIfAbsent(clazz, c -> new Pending());
+    }
+
+    private HashMap<String, Object> identityMap(Class<?> clazz) {
+        return identityMap.computeIfAbsent(clazz, c -> new HashMap<>());
+    }
+
+    private PojoStatement statement(Class<?> clazz, String stmtName) throws SQLException {
+        String name = clazz.getName() + "/" + stmtName;
+        PojoStatement stmt = statements.get(name);
+        if(stmt == null) {
+            stmt = db.create_STATEMENT(conn, clazz, stmtName);
+            statements.put(name, stmt);
+        }
+        return stmt;
+    }
+
+    private static class Pending {
+        final IdentityQueue created = new IdentityQueue();
+        final IdentityQueue updated = new IdentityQueue();
+        final LinkedHashMap<String, Object> deleted = new LinkedHashMap<>();
+    }
+
+    /**
+     * Insertion ordered set of instances compared by identity.
+     */
+    private static class IdentityQueue {
+        private final IdentityHashMap<Object, Boolean> members = new IdentityHashMap<>();
+        private final ArrayList<Object> order = new ArrayList<>();
+
+        void add(Object item) {
+            if(members.put(item, Boolean.TRUE) == null) {
+                order.add(item);
+            }
+        }
+
+        boolean remove(Object item) {
+            if(members.remove(item) != null) {
+                order.removeIf(o -> o == item);
+                return true;
+            }
+            return false;
+        }
+
+        boolean contains(Object item) {
+            return members.containsKey(item);
+        }
+
+        boolean isEmpty() {
+            return order.isEmpty();
+        }
+
+        List<Object> drain() {
+            List<Object> items = new ArrayList<>(order);
+            members.clear();
+            order.clear();
+            return items;
+        }
+    }
+}
@@ -3,9 +3,10 @@ package org.megastage.vase;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VaseUtil {
-    private static transient HashMap<Class, Field[]> _cache = new HashMap<>();
+    private static final ConcurrentHashMap<Class, Field[]> _cache = new ConcurrentHashMap<>();
 
     private static boolean copyableField(Field f) {
         int modifiers = f.getModifiers();
@@ -20,33 +21,16 @@ public class VaseUtil {
 
         List<Field> list = loadFields(currentClass);
         fields = list.toArray(new Field[list.size()]);
-        _cache.put(currentClass, fields);
-        return fields;
+        Field[] previous = _cache.putIfAbsent(currentClass, fields);
+        return previous == null ? fields : previous;
     }
 
     public static <T> Field getKeyField(Class<T> clazz) {
-        Field[] fields = getFields(clazz);
-        for(Field field: fields) {
-            if(field.getAnnotation(SqlKey.class) != null) {
-                return field;
-            }
-        }
-        throw new RuntimeException("SqlKey is not specified in " + clazz.getName());
+        return EntityMetadata.of(clazz).getKeyField();
     }
 
     public static <T> Object getKeyValue(T dao) {
-        Field[] fields = getFields(dao.getClass());
-        try {
-            for(Field field: fields) {
-                if(field.getAnnotation(SqlKey.class) != null) {
-                        return field.get(dao);
-                }
-            }
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
-        throw new RuntimeException("SqlKey is not specified in " + dao.getClass().getName());
+        return EntityMetadata.of(dao.getClass()).getKeyValue(dao);
     }
 
     private static List<Field> loadFields(Class<?> klass) {